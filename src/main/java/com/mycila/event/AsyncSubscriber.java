@@ -0,0 +1,36 @@
+/**
+ * Copyright (C) 2010 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.event;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * A subscriber whose delivery ends when the returned future completes rather than when the method returns.
+ * <p/>
+ * A dispatcher waiting for its subscribers, like {@link Dispatchers#broadcastOrdered()}, waits for the future,
+ * and a failed or cancelled future is reported to the {@link ErrorHandler}, possibly from the thread completing
+ * it. The future is listened to: no thread is blocked waiting for it.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ * @see ExtendedDispatcher#subscribeAsync(Topics, Class, AsyncSubscriber)
+ */
+public interface AsyncSubscriber<E> {
+    /**
+     * @param event the event, which can be kept until the future completes
+     * @return the completion of the delivery, or null if it is already over
+     */
+    ListenableFuture<?> onEvent(Event<E> event) throws Exception;
+}
@@ -0,0 +1,33 @@
+/**
+ * Copyright (C) 2010 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.event;
+
+/**
+ * A {@link Publisher} which also publishes several events at once. The publishers created by {@link MycilaEvent}
+ * implement it and can be cast to it.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public interface BatchPublisher extends Publisher {
+    /**
+     * Publishes several events at once on each topic
+     *
+     * @see ExtendedDispatcher#publishAll(Topic, Iterable)
+     */
+    void publishAll(Iterable<?> events);
+
+    void publishAll(Object[] events);
+}
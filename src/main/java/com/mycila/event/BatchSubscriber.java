@@ -0,0 +1,32 @@
+/**
+ * Copyright (C) 2010 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.event;
+
+import java.util.List;
+
+/**
+ * A subscriber receiving its events by batches. A batch is delivered when full, or once its first event has waited
+ * for the maximum latency of the subscription, unless it is 0.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ * @see ExtendedDispatcher#subscribe(Topics, Class, BatchSubscriber, int, long, java.util.concurrent.TimeUnit)
+ */
+public interface BatchSubscriber<E> {
+    /**
+     * @param events at least one event, in the order they were received. The list and its events can be kept.
+     */
+    void onEvents(List<Event<E>> events) throws Exception;
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright (C) 2010 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.event;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.Map;
+
+/**
+ * The delivery of an event published by {@link ExtendedDispatcher#publishTracked(Topic, Object)}.
+ * <p/>
+ * It completes once every subscriber the event was dispatched to has processed it, the completion of an
+ * {@link AsyncSubscriber} being the one of its future. Failing subscribers do not fail it: they are listed by
+ * {@link #getFailures()}. It only fails when the event could not be dispatched, like when the publication is
+ * dropped by an {@link OverflowPolicy} or the error handler rethrows during the dispatch. It cannot be cancelled.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public interface Delivery extends ListenableFuture<Delivery> {
+    Topic getTopic();
+
+    /**
+     * @return the number of subscriptions the event was dispatched to, known once dispatched
+     */
+    int getSubscriberCount();
+
+    /**
+     * @return the subscriptions which failed to process the event, with their error, in failure order. The map is
+     *         a copy, complete once this delivery is done.
+     */
+    Map<Subscription<?>, Exception> getFailures();
+}
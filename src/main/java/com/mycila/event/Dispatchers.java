@@ -15,22 +15,29 @@
  */
 package com.mycila.event;
 
+import com.mycila.event.internal.CompletionBarrierExecutor;
+import com.mycila.event.internal.ConflatingExecutor;
 import com.mycila.event.internal.DefaultDispatcher;
+import com.mycila.event.internal.DirectExecutor;
+import com.mycila.event.internal.Discardable;
+import com.mycila.event.internal.ForkJoinFanOutExecutor;
+import com.mycila.event.internal.MailboxExecutor;
+import com.mycila.event.internal.RingBufferExecutor;
+import com.mycila.event.internal.TopicPartitionedExecutor;
 
 import javax.annotation.PreDestroy;
-import java.util.concurrent.CompletionService;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 import static com.mycila.event.internal.Ensure.notNull;
 
@@ -39,9 +46,29 @@ import static com.mycila.event.internal.Ensure.notNull;
  */
 public final class Dispatchers {
 
+    // Executors.newVirtualThreadPerTaskExecutor() is only there from Java 21
+    private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR;
+
+    static {
+        Method method;
+        try {
+            method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            method = null;
+        }
+        NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = method;
+    }
+
     private Dispatchers() {
     }
 
+    /**
+     * @return true if the running JVM supports virtual threads, which the virtual thread dispatchers require
+     */
+    public static boolean supportsVirtualThreads() {
+        return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
     /* custom */
 
     public static Dispatcher custom(Executor publishExecutor,
@@ -55,6 +82,13 @@ public final class Dispatchers {
         return new DefaultDispatcher(errorHandler, publishExecutor, subscriberExecutor);
     }
 
+    public static Dispatcher custom(ErrorHandler errorHandler,
+                                    Executor publishExecutor,
+                                    Executor subscriberExecutor,
+                                    int topicCacheSize) {
+        return new DefaultDispatcher(errorHandler, publishExecutor, subscriberExecutor, topicCacheSize);
+    }
+
     public static Dispatcher custom(ExecutorService publishExecutor,
                                     ExecutorService subscriberExecutor) {
         return custom(ErrorHandlers.rethrow(), publishExecutor, subscriberExecutor);
@@ -80,7 +114,7 @@ public final class Dispatchers {
     }
 
     public static Dispatcher synchronousSafe(ErrorHandler errorHandler, long blockingTimeout, TimeUnit unit) {
-        return new DefaultDispatcher(errorHandler, Executors.blocking(blockingTimeout, unit), Executors.immediate());
+        return new DefaultDispatcher(errorHandler, DirectExecutor.blocking(blockingTimeout, unit), DirectExecutor.immediate());
     }
 
     public static Dispatcher synchronousSafe() {
@@ -88,7 +122,7 @@ public final class Dispatchers {
     }
 
     public static Dispatcher synchronousSafe(ErrorHandler errorHandler) {
-        return new DefaultDispatcher(errorHandler, Executors.blocking(), Executors.immediate());
+        return new DefaultDispatcher(errorHandler, DirectExecutor.blocking(), DirectExecutor.immediate());
     }
 
     /* synchronousUnsafe */
@@ -98,7 +132,33 @@ public final class Dispatchers {
     }
 
     public static Dispatcher synchronousUnsafe(ErrorHandler errorHandler) {
-        return new DefaultDispatcher(errorHandler, Executors.immediate(), Executors.immediate());
+        return new DefaultDispatcher(errorHandler, DirectExecutor.immediate(), DirectExecutor.immediate());
+    }
+
+    /* reusing events */
+
+    /**
+     * Same as {@link #synchronousSafe()}, but publishing does not allocate any {@link Event}: the event is only valid
+     * during the call to the subscribers.
+     */
+    public static Dispatcher synchronousSafeReusingEvents() {
+        return synchronousSafeReusingEvents(ErrorHandlers.rethrow());
+    }
+
+    public static Dispatcher synchronousSafeReusingEvents(ErrorHandler errorHandler) {
+        return new DefaultDispatcher(errorHandler, DirectExecutor.blocking(), DirectExecutor.immediate(), DefaultDispatcher.DEFAULT_TOPIC_CACHE_SIZE, true);
+    }
+
+    /**
+     * Same as {@link #synchronousUnsafe()}, but publishing does not allocate any {@link Event}: the event is only
+     * valid during the call to the subscribers.
+     */
+    public static Dispatcher synchronousUnsafeReusingEvents() {
+        return synchronousUnsafeReusingEvents(ErrorHandlers.rethrow());
+    }
+
+    public static Dispatcher synchronousUnsafeReusingEvents(ErrorHandler errorHandler) {
+        return new DefaultDispatcher(errorHandler, DirectExecutor.immediate(), DirectExecutor.immediate(), DefaultDispatcher.DEFAULT_TOPIC_CACHE_SIZE, true);
     }
 
     /* asynchronousSafe */
@@ -108,17 +168,47 @@ public final class Dispatchers {
     }
 
     public static Dispatcher asynchronousSafe(ErrorHandler errorHandler) {
-        final ExecutorService executor = new ThreadPoolExecutor(
-                1, 1,
-                0L, TimeUnit.MILLISECONDS,
-                new LinkedBlockingQueue<Runnable>(),
-                new DefaultThreadFactory("AsynchronousSafe", "dispatcher", false),
-                new RejectedExecutionHandler() {
-                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
-                        r.run();
-                    }
-                });
-        return new DefaultDispatcher(errorHandler, executor, Executors.immediate()) {
+        return asynchronousSafe(Integer.MAX_VALUE, OverflowPolicy.callerRuns(), errorHandler);
+    }
+
+    public static Dispatcher asynchronousSafe(int capacity, OverflowPolicy overflowPolicy) {
+        return asynchronousSafe(capacity, overflowPolicy, ErrorHandlers.rethrow());
+    }
+
+    /**
+     * @param capacity       maximum number of publications waiting to be dispatched
+     * @param overflowPolicy what to do with a publication when the queue is full
+     */
+    public static Dispatcher asynchronousSafe(int capacity, OverflowPolicy overflowPolicy, ErrorHandler errorHandler) {
+        final ExecutorService executor = pool("AsynchronousSafe", 1, capacity, overflowPolicy);
+        return new DefaultDispatcher(errorHandler, executor, DirectExecutor.immediate()) {
+            @Override
+            @PreDestroy
+            public void close() {
+                executor.shutdown();
+            }
+        };
+    }
+
+    /* ringBuffer */
+
+    public static Dispatcher ringBuffer() {
+        return ringBuffer(ErrorHandlers.rethrow());
+    }
+
+    public static Dispatcher ringBuffer(ErrorHandler errorHandler) {
+        return ringBuffer(4096, errorHandler);
+    }
+
+    public static Dispatcher ringBuffer(int bufferSize) {
+        return ringBuffer(bufferSize, ErrorHandlers.rethrow());
+    }
+
+    public static Dispatcher ringBuffer(int bufferSize, ErrorHandler errorHandler) {
+        final RingBufferExecutor executor = new RingBufferExecutor(
+                bufferSize,
+                new DefaultThreadFactory("RingBuffer", "dispatcher", false));
+        return new DefaultDispatcher(errorHandler, executor, DirectExecutor.immediate()) {
             @Override
             @PreDestroy
             public void close() {
@@ -142,17 +232,20 @@ public final class Dispatchers {
     }
 
     public static Dispatcher asynchronousUnsafe(int corePoolSize, ErrorHandler errorHandler) {
-        final ExecutorService executor = new ThreadPoolExecutor(
-                corePoolSize, corePoolSize,
-                0L, TimeUnit.MILLISECONDS,
-                new LinkedBlockingQueue<Runnable>(),
-                new DefaultThreadFactory("AsynchronousSafe", "dispatcher", false),
-                new RejectedExecutionHandler() {
-                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
-                        r.run();
-                    }
-                });
-        return new DefaultDispatcher(errorHandler, executor, Executors.immediate()) {
+        return asynchronousUnsafe(corePoolSize, Integer.MAX_VALUE, OverflowPolicy.callerRuns(), errorHandler);
+    }
+
+    public static Dispatcher asynchronousUnsafe(int corePoolSize, int capacity, OverflowPolicy overflowPolicy) {
+        return asynchronousUnsafe(corePoolSize, capacity, overflowPolicy, ErrorHandlers.rethrow());
+    }
+
+    /**
+     * @param capacity       maximum number of publications waiting to be dispatched
+     * @param overflowPolicy what to do with a publication when the queue is full
+     */
+    public static Dispatcher asynchronousUnsafe(int corePoolSize, int capacity, OverflowPolicy overflowPolicy, ErrorHandler errorHandler) {
+        final ExecutorService executor = pool("AsynchronousUnsafe", corePoolSize, capacity, overflowPolicy);
+        return new DefaultDispatcher(errorHandler, executor, DirectExecutor.immediate()) {
             @Override
             @PreDestroy
             public void close() {
@@ -176,41 +269,53 @@ public final class Dispatchers {
     }
 
     public static Dispatcher broadcastOrdered(int corePoolSize, ErrorHandler errorHandler) {
-        final ExecutorService publishingExecutor = new ThreadPoolExecutor(
-                1, 1,
-                0L, TimeUnit.MILLISECONDS,
-                new LinkedBlockingQueue<Runnable>(),
-                new DefaultThreadFactory("BroadcastOrdered", "dispatcher", false),
-                new RejectedExecutionHandler() {
-                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
-                        r.run();
-                    }
-                });
-        final ExecutorService subscriberExecutor = new ThreadPoolExecutor(
-                corePoolSize, corePoolSize,
-                0L, TimeUnit.MILLISECONDS,
-                new LinkedBlockingQueue<Runnable>(),
-                new DefaultThreadFactory("BroadcastOrdered", "dispatcher", false),
-                new RejectedExecutionHandler() {
-                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
-                        r.run();
-                    }
-                });
-        final SubscriberCompletionExecutor subscriberCompletionExecutor = new SubscriberCompletionExecutor(subscriberExecutor);
+        return broadcastOrdered(corePoolSize, Integer.MAX_VALUE, OverflowPolicy.callerRuns(), errorHandler);
+    }
+
+    public static Dispatcher broadcastOrdered(int corePoolSize, int capacity, OverflowPolicy overflowPolicy) {
+        return broadcastOrdered(corePoolSize, capacity, overflowPolicy, ErrorHandlers.rethrow());
+    }
+
+    /**
+     * @param capacity       maximum number of publications waiting to be dispatched. The subscriber queue does not
+     *                       need a bound: it never holds more than the subscriptions of the event being dispatched.
+     * @param overflowPolicy what to do with a publication when the queue is full. A subscriber publishing to this
+     *                       dispatcher cannot be held back, since the publishing thread waits for it: it gets a
+     *                       {@link java.util.concurrent.RejectedExecutionException} instead of waiting for room or
+     *                       running the publication itself.
+     */
+    public static Dispatcher broadcastOrdered(int corePoolSize, int capacity, final OverflowPolicy overflowPolicy, ErrorHandler errorHandler) {
+        notNull(overflowPolicy, "Overflow policy");
+        final ExecutorService subscriberExecutor = pool("BroadcastOrdered", corePoolSize, Integer.MAX_VALUE, OverflowPolicy.callerRuns());
+        final CompletionBarrierExecutor completionBarrier = new CompletionBarrierExecutor(subscriberExecutor);
+        final ExecutorService publishingExecutor = pool("BroadcastOrdered", 1, capacity, new RejectedExecutionHandler() {
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                if (overflowPolicy.holdsBack() && completionBarrier.isCalling())
+                    throw overflowPolicy.reject("Queue full and cannot be waited for by a subscriber of the event being dispatched");
+                overflowPolicy.rejectedExecution(r, executor);
+            }
+        });
         return new DefaultDispatcher(errorHandler, new Executor() {
             public void execute(final Runnable command) {
-                publishingExecutor.execute(new Runnable() {
+                publishingExecutor.execute(new Discardable() {
                     public void run() {
-                        subscriberCompletionExecutor.onPublishStarting();
-                        try {
-                            command.run();
-                        } finally {
-                            subscriberCompletionExecutor.waitForCompletion();
+                        // the publisher runs it itself when the queue is full with the caller-runs policy
+                        synchronized (completionBarrier) {
+                            try {
+                                command.run();
+                            } finally {
+                                completionBarrier.awaitCompletion();
+                            }
                         }
                     }
+
+                    public void discard() {
+                        if (command instanceof Discardable)
+                            ((Discardable) command).discard();
+                    }
                 });
             }
-        }, subscriberCompletionExecutor) {
+        }, completionBarrier) {
             @Override
             @PreDestroy
             public void close() {
@@ -220,35 +325,112 @@ public final class Dispatchers {
         };
     }
 
-    private static final class SubscriberCompletionExecutor implements Executor {
+    /* topicOrdered */
 
-        final Executor executor;
-        CompletionService<Void> completionService;
-        volatile int count = 0;
+    public static Dispatcher topicOrdered() {
+        return topicOrdered(ErrorHandlers.rethrow());
+    }
 
-        SubscriberCompletionExecutor(Executor executor) {
-            this.executor = executor;
-        }
+    public static Dispatcher topicOrdered(ErrorHandler errorHandler) {
+        return topicOrdered(Runtime.getRuntime().availableProcessors(), errorHandler);
+    }
 
-        public void execute(Runnable command) {
-            completionService.submit(command, null);
-            count++;
-        }
+    public static Dispatcher topicOrdered(int lanes) {
+        return topicOrdered(lanes, ErrorHandlers.rethrow());
+    }
 
-        void onPublishStarting() {
-            completionService = new ExecutorCompletionService<Void>(executor);
-            count = 0;
-        }
+    public static Dispatcher topicOrdered(int lanes, ErrorHandler errorHandler) {
+        final TopicPartitionedExecutor executor = new TopicPartitionedExecutor(
+                lanes,
+                4096,
+                new DefaultThreadFactory("TopicOrdered", "dispatcher", false));
+        return new DefaultDispatcher(errorHandler, executor, DirectExecutor.immediate()) {
+            @Override
+            @PreDestroy
+            public void close() {
+                executor.shutdown();
+            }
+        };
+    }
+
+    /* mailbox */
+
+    public static Dispatcher mailbox() {
+        return mailbox(ErrorHandlers.rethrow());
+    }
+
+    public static Dispatcher mailbox(ErrorHandler errorHandler) {
+        return mailbox(Runtime.getRuntime().availableProcessors() * 4, 1024, errorHandler);
+    }
+
+    public static Dispatcher mailbox(int corePoolSize, int mailboxCapacity) {
+        return mailbox(corePoolSize, mailboxCapacity, ErrorHandlers.rethrow());
+    }
 
-        void waitForCompletion() {
-            try {
-                while (count-- > 0)
-                    completionService.take();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+    public static Dispatcher mailbox(int corePoolSize, int mailboxCapacity, ErrorHandler errorHandler) {
+        final ExecutorService executor = pool("Mailbox", corePoolSize, Integer.MAX_VALUE, OverflowPolicy.callerRuns());
+        return new DefaultDispatcher(errorHandler, DirectExecutor.immediate(), new MailboxExecutor(executor, mailboxCapacity)) {
+            @Override
+            @PreDestroy
+            public void close() {
+                executor.shutdown();
             }
-        }
+        };
+    }
 
+    /* conflating */
+
+    public static Dispatcher conflating() {
+        return conflating(ErrorHandlers.rethrow());
+    }
+
+    public static Dispatcher conflating(ErrorHandler errorHandler) {
+        return conflating(Runtime.getRuntime().availableProcessors() * 4, errorHandler);
+    }
+
+    public static Dispatcher conflating(int corePoolSize) {
+        return conflating(corePoolSize, ErrorHandlers.rethrow());
+    }
+
+    public static Dispatcher conflating(int corePoolSize, ErrorHandler errorHandler) {
+        final ExecutorService executor = pool("Conflating", corePoolSize, Integer.MAX_VALUE, OverflowPolicy.callerRuns());
+        return new DefaultDispatcher(errorHandler, DirectExecutor.immediate(), new ConflatingExecutor(executor)) {
+            @Override
+            @PreDestroy
+            public void close() {
+                executor.shutdown();
+            }
+        };
+    }
+
+    /* forkJoin */
+
+    public static Dispatcher forkJoin() {
+        return forkJoin(ErrorHandlers.rethrow());
+    }
+
+    public static Dispatcher forkJoin(ErrorHandler errorHandler) {
+        return forkJoin(Runtime.getRuntime().availableProcessors(), 64, errorHandler);
+    }
+
+    public static Dispatcher forkJoin(int parallelism, int threshold) {
+        return forkJoin(parallelism, threshold, ErrorHandlers.rethrow());
+    }
+
+    /**
+     * @param threshold maximum number of subscriptions called sequentially by one task. Events having more
+     *                  subscriptions are split in parts spread over the pool workers.
+     */
+    public static Dispatcher forkJoin(int parallelism, int threshold, ErrorHandler errorHandler) {
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        final ForkJoinFanOutExecutor executor = new ForkJoinFanOutExecutor(pool, threshold);
+        return new DefaultDispatcher(errorHandler, executor, executor) {
+            @Override
+            @PreDestroy
+            public void close() {
+                pool.shutdown();
+            }
+        };
     }
 
     /* broadcastUnordered */
@@ -267,16 +449,19 @@ public final class Dispatchers {
     }
 
     public static Dispatcher broadcastUnordered(int corePoolSize, ErrorHandler errorHandler) {
-        final ExecutorService executor = new ThreadPoolExecutor(
-                corePoolSize, corePoolSize,
-                0L, TimeUnit.MILLISECONDS,
-                new LinkedBlockingQueue<Runnable>(),
-                new DefaultThreadFactory("BroadcastUnordered", "dispatcher", false),
-                new RejectedExecutionHandler() {
-                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
-                        r.run();
-                    }
-                });
+        return broadcastUnordered(corePoolSize, Integer.MAX_VALUE, OverflowPolicy.callerRuns(), errorHandler);
+    }
+
+    public static Dispatcher broadcastUnordered(int corePoolSize, int capacity, OverflowPolicy overflowPolicy) {
+        return broadcastUnordered(corePoolSize, capacity, overflowPolicy, ErrorHandlers.rethrow());
+    }
+
+    /**
+     * @param capacity       maximum number of publications and subscriber calls waiting to be run
+     * @param overflowPolicy what to do with a publication or subscriber call when the queue is full
+     */
+    public static Dispatcher broadcastUnordered(int corePoolSize, int capacity, OverflowPolicy overflowPolicy, ErrorHandler errorHandler) {
+        final ExecutorService executor = pool("BroadcastUnordered", corePoolSize, capacity, overflowPolicy);
         return new DefaultDispatcher(errorHandler, executor, executor) {
             @Override
             @PreDestroy
@@ -286,49 +471,84 @@ public final class Dispatchers {
         };
     }
 
-    private static final class Executors {
+    /* virtual threads */
 
-        private static Executor immediate() {
-            return new Executor() {
-                public void execute(Runnable command) {
-                    command.run();
-                }
-            };
-        }
+    public static Dispatcher virtualThreads() {
+        return virtualThreads(ErrorHandlers.rethrow());
+    }
 
-        private static Executor blocking() {
-            return new Executor() {
-                public synchronized void execute(Runnable command) {
-                    command.run();
-                }
-            };
-        }
+    /**
+     * Runs each publication and each subscriber call in its own virtual thread: same as
+     * {@link #broadcastUnorderedVirtual(ErrorHandler)}
+     *
+     * @throws UnsupportedOperationException if the running JVM does not support virtual threads
+     */
+    public static Dispatcher virtualThreads(ErrorHandler errorHandler) {
+        return broadcastUnorderedVirtual(errorHandler);
+    }
 
-        private static Executor blocking(final long blockingTimeout, final TimeUnit unit) {
-            return new Executor() {
-                private final Lock lock = new ReentrantLock();
-
-                public void execute(Runnable command) {
-                    boolean acquired;
-                    try {
-                        acquired = lock.tryLock(blockingTimeout, unit);
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        throw SubscriberExecutionException.wrap(e);
-                    }
-                    if (acquired) {
-                        try {
-                            command.run();
-                        } finally {
-                            lock.unlock();
-                        }
-                    } else
-                        throw SubscriberExecutionException.wrap(new TimeoutException("Unable to acquire lock in " + blockingTimeout + " " + unit));
-                }
-            };
+    public static Dispatcher asynchronousUnsafeVirtual() {
+        return asynchronousUnsafeVirtual(ErrorHandlers.rethrow());
+    }
+
+    /**
+     * Same as {@link #asynchronousUnsafe()} but each publication runs in its own virtual thread
+     *
+     * @throws UnsupportedOperationException if the running JVM does not support virtual threads
+     */
+    public static Dispatcher asynchronousUnsafeVirtual(ErrorHandler errorHandler) {
+        final ExecutorService executor = virtualPool();
+        return new DefaultDispatcher(errorHandler, executor, DirectExecutor.immediate()) {
+            @Override
+            @PreDestroy
+            public void close() {
+                executor.shutdown();
+            }
+        };
+    }
+
+    public static Dispatcher broadcastUnorderedVirtual() {
+        return broadcastUnorderedVirtual(ErrorHandlers.rethrow());
+    }
+
+    /**
+     * Same as {@link #broadcastUnordered()} but each publication and each subscriber call runs in its own virtual thread
+     *
+     * @throws UnsupportedOperationException if the running JVM does not support virtual threads
+     */
+    public static Dispatcher broadcastUnorderedVirtual(ErrorHandler errorHandler) {
+        final ExecutorService executor = virtualPool();
+        return new DefaultDispatcher(errorHandler, executor, executor) {
+            @Override
+            @PreDestroy
+            public void close() {
+                executor.shutdown();
+            }
+        };
+    }
+
+    private static ExecutorService virtualPool() {
+        // a pool of platform threads would either be bounded, which is what these dispatchers avoid, or unbounded
+        if (NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR == null)
+            throw new UnsupportedOperationException("Virtual threads require Java 21: use a dispatcher backed by a thread pool instead");
+        try {
+            return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(e.getTargetException().getMessage(), e.getTargetException());
         }
     }
 
+    private static ExecutorService pool(String name, int threads, int capacity, RejectedExecutionHandler overflowPolicy) {
+        return new ThreadPoolExecutor(
+                threads, threads,
+                0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(capacity),
+                new DefaultThreadFactory(name, "dispatcher", false),
+                notNull(overflowPolicy, "Overflow policy"));
+    }
+
     private static final class DefaultThreadFactory implements ThreadFactory {
         private static final AtomicInteger poolNumber = new AtomicInteger(1);
 
@@ -16,6 +16,11 @@
 package com.mycila.event;
 
 /**
+ * An event can be kept by its subscribers, except with the dispatchers reusing their events
+ * ({@link Dispatchers#synchronousSafeReusingEvents()} and {@link Dispatchers#synchronousUnsafeReusingEvents()}):
+ * the same object is then handed to the subscribers of the next publication, so it is only valid during the call
+ * to the subscriber. Keep its source, topic or timestamp instead.
+ *
  * @author Mathieu Carbou (mathieu.carbou@gmail.com)
  */
 public interface Event<E> {
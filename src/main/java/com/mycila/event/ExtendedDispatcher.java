@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2010 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.event;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link Dispatcher} providing the operations added since its first version. The dispatchers created by
+ * {@link Dispatchers} all implement it and can be cast to it, while an existing implementation of
+ * {@link Dispatcher} keeps working unchanged.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public interface ExtendedDispatcher extends Dispatcher {
+    /**
+     * Publishes an event and tracks its delivery
+     *
+     * @return the delivery, completing once all the subscribers the event was dispatched to have processed it
+     */
+    <E> Delivery publishTracked(Topic topic, E source);
+
+    /**
+     * Publishes on the topic having this {@link Topic#getId() id}, which must be kept referenced
+     *
+     * @throws IllegalArgumentException if no live topic has this id
+     */
+    <E> void publish(int topicId, E source);
+
+    /**
+     * Publishes several events on a topic. Its subscriptions are resolved once for the batch, and each subscriber
+     * receives the events it accepts in the order of the batch.
+     */
+    <E> void publishAll(Topic topic, Iterable<? extends E> sources);
+
+    <E> void publishAll(Topic topic, E[] sources);
+
+    /**
+     * Subscribes like {@link #subscribe(Topics, Class, Subscriber)}
+     *
+     * @return the handle cancelling this subscription only
+     */
+    <E> SubscriptionHandle subscribeWithHandle(Topics matcher, Class<?> eventType, Subscriber<E> subscriber);
+
+    /**
+     * Subscribes a subscriber whose delivery of an event ends when the future it returns completes
+     */
+    <E> SubscriptionHandle subscribeAsync(Topics matcher, Class<?> eventType, AsyncSubscriber<E> subscriber);
+
+    /**
+     * Subscribes for batches of at most {@code batchSize} events. A batch which is not full is delivered once its
+     * first event has waited for {@code maxLatency}. With a {@code maxLatency} of 0, batches are only delivered once
+     * full: the last events wait for the next ones.
+     */
+    <E> SubscriptionHandle subscribe(Topics matcher, Class<?> eventType, BatchSubscriber<E> subscriber, int batchSize, long maxLatency, TimeUnit unit);
+
+    /**
+     * @return a new batch of subscription changes, applied at once when committed
+     */
+    SubscriptionBatch batch();
+}
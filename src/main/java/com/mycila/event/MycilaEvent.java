@@ -16,12 +16,14 @@
 package com.mycila.event;
 
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.mycila.event.annotation.Answers;
 import com.mycila.event.annotation.Subscribe;
 import com.mycila.event.internal.EventQueue;
 import com.mycila.event.internal.Message;
 import com.mycila.event.internal.Proxy;
 import com.mycila.event.internal.PublisherInterceptor;
+import com.mycila.event.internal.SequentialSubscriptionBatch;
 import com.mycila.event.internal.Subscribers;
 
 import java.lang.reflect.Method;
@@ -36,6 +38,7 @@ import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.collect.Iterables.filter;
@@ -150,7 +153,7 @@ public final class MycilaEvent {
 
     public Publisher createPublisher(final Topic... topics) {
         checkNotNull(topics, "Missing topics");
-        return new Publisher() {
+        return new BatchPublisher() {
             @Override
             public Topic[] getTopics() {
                 return topics;
@@ -163,6 +166,23 @@ public final class MycilaEvent {
                 }
             }
 
+            @Override
+            public void publishAll(Iterable<?> events) {
+                publishAll(Iterables.toArray(checkNotNull(events, "Missing events"), Object.class));
+            }
+
+            @Override
+            public void publishAll(Object[] events) {
+                checkNotNull(events, "Missing events");
+                for (Topic topic : topics) {
+                    if (dispatcher instanceof ExtendedDispatcher)
+                        ((ExtendedDispatcher) dispatcher).publishAll(topic, events);
+                    else
+                        for (Object event : events)
+                            dispatcher.publish(topic, event);
+                }
+            }
+
             @Override
             public String toString() {
                 return "Publisher on " + Arrays.toString(topics);
@@ -180,20 +200,43 @@ public final class MycilaEvent {
     public void register(Object instance) {
         notNull(instance, "Instance");
         final Iterable<Method> methods = findMethods(getTargetClass(instance.getClass()));
+        final SubscriptionBatch batch = dispatcher instanceof ExtendedDispatcher ?
+                ((ExtendedDispatcher) dispatcher).batch() :
+                new SequentialSubscriptionBatch(dispatcher);
         for (Method method : filter(methods, annotatedBy(Subscribe.class))) {
             Subscribe subscribe = method.getAnnotation(Subscribe.class);
-            dispatcher.subscribe(
-                    Topic.anyOf(subscribe.topics()),
-                    subscribe.eventType(),
-                    Subscribers.createSubscriber(instance, method));
+            if (subscribe.batchSize() > 1)
+                batch.subscribe(
+                        topics(subscribe.topics()),
+                        subscribe.eventType(),
+                        Subscribers.createBatchSubscriber(instance, method),
+                        subscribe.batchSize(),
+                        subscribe.maxLatency(),
+                        TimeUnit.MICROSECONDS);
+            else if (ListenableFuture.class.isAssignableFrom(method.getReturnType()))
+                batch.subscribeAsync(
+                        topics(subscribe.topics()),
+                        subscribe.eventType(),
+                        Subscribers.createAsyncSubscriber(instance, method));
+            else
+                batch.subscribe(
+                        topics(subscribe.topics()),
+                        subscribe.eventType(),
+                        Subscribers.createSubscriber(instance, method));
         }
         for (Method method : filter(methods, annotatedBy(Answers.class))) {
             Answers answers = method.getAnnotation(Answers.class);
-            dispatcher.subscribe(
-                    Topic.anyOf(answers.topics()),
+            batch.subscribe(
+                    topics(answers.topics()),
                     EventRequest.class,
                     Subscribers.createResponder(instance, method));
         }
+        batch.commit();
+    }
+
+    private static Topics topics(String[] patterns) {
+        Topics matcher = Topics.anyOf(patterns);
+        return patterns.length > 1 ? matcher.compile() : matcher;
     }
 
     /* STATIC CTOR */
@@ -0,0 +1,180 @@
+/**
+ * Copyright (C) 2010 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.event;
+
+import com.mycila.event.internal.Discardable;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.mycila.event.internal.Ensure.notNull;
+
+/**
+ * What a dispatcher does with a publication when the work queue of its executor is full. Each policy counts the
+ * publications it had to hold back, drop or reject: use a new policy for each dispatcher.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ * @see Dispatchers
+ */
+public abstract class OverflowPolicy implements RejectedExecutionHandler {
+
+    private final String name;
+    final AtomicLong blocked = new AtomicLong();
+    final AtomicLong dropped = new AtomicLong();
+    final AtomicLong rejected = new AtomicLong();
+
+    private OverflowPolicy(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the number of times a publisher was held back, by waiting for room or by running the work itself
+     */
+    public final long getBlockedCount() {
+        return blocked.get();
+    }
+
+    /**
+     * @return the number of publications discarded
+     */
+    public final long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of publications refused with a {@link RejectedExecutionException}
+     */
+    public final long getRejectedCount() {
+        return rejected.get();
+    }
+
+    @Override
+    public String toString() {
+        return name + "{blocked=" + blocked + ",dropped=" + dropped + ",rejected=" + rejected + "}";
+    }
+
+    final void drop(Runnable task) {
+        dropped.incrementAndGet();
+        if (task instanceof Discardable)
+            ((Discardable) task).discard();
+    }
+
+    final RejectedExecutionException reject(String message) {
+        rejected.incrementAndGet();
+        return new RejectedExecutionException(message);
+    }
+
+    /**
+     * @return true if the publisher waits for the queue, by waiting for room or by running the work itself
+     */
+    boolean holdsBack() {
+        return false;
+    }
+
+    /**
+     * The publisher waits for room in the queue, and fails if there is still none after the timeout
+     */
+    public static OverflowPolicy block(final long timeout, final TimeUnit unit) {
+        notNull(unit, "Time unit");
+        return new OverflowPolicy("Block") {
+            @Override
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                if (executor.isShutdown())
+                    throw reject("Executor has been shut down");
+                blocked.incrementAndGet();
+                boolean queued;
+                try {
+                    queued = executor.getQueue().offer(r, timeout, unit);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw reject("Interrupted while waiting for room in the queue");
+                }
+                if (!queued)
+                    throw reject("Queue still full after " + timeout + " " + unit);
+            }
+
+            @Override
+            boolean holdsBack() {
+                return true;
+            }
+        };
+    }
+
+    /**
+     * The new publication is discarded
+     */
+    public static OverflowPolicy dropNewest() {
+        return new OverflowPolicy("DropNewest") {
+            @Override
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                drop(r);
+            }
+        };
+    }
+
+    /**
+     * The oldest queued publication is discarded to make room for the new one
+     */
+    public static OverflowPolicy dropOldest() {
+        return new OverflowPolicy("DropOldest") {
+            @Override
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                if (executor.isShutdown()) {
+                    drop(r);
+                    return;
+                }
+                Runnable oldest = executor.getQueue().poll();
+                if (oldest != null)
+                    drop(oldest);
+                executor.execute(r);
+            }
+        };
+    }
+
+    /**
+     * The publisher gets a {@link RejectedExecutionException}
+     */
+    public static OverflowPolicy failFast() {
+        return new OverflowPolicy("FailFast") {
+            @Override
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                throw reject("Queue full");
+            }
+        };
+    }
+
+    /**
+     * The publisher runs the work itself. This breaks the ordering of single-threaded dispatchers.
+     */
+    public static OverflowPolicy callerRuns() {
+        return new OverflowPolicy("CallerRuns") {
+            @Override
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                blocked.incrementAndGet();
+                r.run();
+            }
+
+            @Override
+            boolean holdsBack() {
+                return true;
+            }
+        };
+    }
+
+}
@@ -15,7 +15,7 @@
  */
 package com.mycila.event;
 
-import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
 
 import static com.mycila.event.internal.Ensure.notNull;
@@ -26,7 +26,7 @@ import static com.mycila.event.internal.Ensure.notNull;
 public enum Reachability {
     HARD {
         @Override
-        public <T> Ref<T> wrap(final T referencable) {
+        public <T> Ref<T> wrap(final T referencable, ReferenceQueue<? super T> queue) {
             notNull(referencable, "Referenced object");
             return new Ref<T>() {
                 @Override
@@ -38,11 +38,18 @@ public enum Reachability {
 
     WEAK {
         @Override
-        public <T> Ref<T> wrap(T referencable) {
-            return new JDKRef<T>(new WeakReference<T>(notNull(referencable, "Referenced object")));
+        public <T> Ref<T> wrap(T referencable, ReferenceQueue<? super T> queue) {
+            return new WeakRef<T>(notNull(referencable, "Referenced object"), queue);
         }};
 
-    public abstract <T> Ref<T> wrap(T referencable);
+    public <T> Ref<T> wrap(T referencable) {
+        return wrap(referencable, null);
+    }
+
+    /**
+     * @param queue where weak references are enqueued once their referent has been collected. Can be null.
+     */
+    public abstract <T> Ref<T> wrap(T referencable, ReferenceQueue<? super T> queue);
 
     public static Reachability of(Object o) {
         notNull(o, "Object");
@@ -57,16 +64,9 @@ public enum Reachability {
         return ref == null ? HARD : ref.value();
     }
 
-    private static final class JDKRef<T> implements Ref<T> {
-        final Reference<T> reference;
-
-        JDKRef(Reference<T> reference) {
-            this.reference = reference;
-        }
-
-        @Override
-        public T get() {
-            return reference.get();
+    private static final class WeakRef<T> extends WeakReference<T> implements Ref<T> {
+        WeakRef(T referent, ReferenceQueue<? super T> queue) {
+            super(referent, queue);
         }
     }
 }
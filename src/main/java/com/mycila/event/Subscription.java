@@ -15,21 +15,37 @@
  */
 package com.mycila.event;
 
+import com.mycila.event.internal.SubscriberAdapter;
+
+import java.lang.ref.ReferenceQueue;
+
 import static com.mycila.event.internal.Ensure.notNull;
 
 /**
+ * A subscriber registered for an event type on some topics. A subscription only keeps its subscriber as
+ * reachable as the subscriber's {@link Reachability}: once a weak subscriber is collected,
+ * {@link #getSubscriber()} returns null and the subscription is removed.
+ *
  * @author Mathieu Carbou (mathieu.carbou@gmail.com)
  */
 public final class Subscription<E> implements Referencable {
 
     private final Topics matcher;
     private final Class<?> eventType;
-    private final Subscriber<E> subscriber;
+    private final Reachability reachability;
+    private final Ref<Subscriber<E>> subscriber;
+    private final SubscriberAdapter adapter;
+    private volatile boolean cancelled;
 
-    private Subscription(Topics matcher, Class<?> eventType, Subscriber<E> subscriber) {
+    private Subscription(Topics matcher, Class<?> eventType, Subscriber<E> subscriber, ReferenceQueue<Object> queue) {
         this.matcher = matcher;
         this.eventType = eventType;
-        this.subscriber = subscriber;
+        this.reachability = subscriber instanceof Referencable ?
+                ((Referencable) subscriber).getReachability() :
+                Reachability.of(subscriber.getClass());
+        // an adapter applies the reachability to the object it adapts, it must not be collected before it
+        this.adapter = subscriber instanceof SubscriberAdapter ? (SubscriberAdapter) subscriber : null;
+        this.subscriber = (adapter == null ? reachability : Reachability.HARD).wrap(subscriber, queue);
     }
 
     public Topics getTopicMatcher() {
@@ -40,15 +56,29 @@ public final class Subscription<E> implements Referencable {
         return eventType;
     }
 
+    /**
+     * @return the subscriber, or null if this subscription has been cancelled or if its subscriber was weakly
+     *         reachable and has been garbage collected
+     */
     public Subscriber<E> getSubscriber() {
-        return subscriber;
+        return cancelled || adapter != null && adapter.isCollected() ? null : subscriber.get();
+    }
+
+    /**
+     * Stops this subscription: {@link #getSubscriber()} returns null from now on. To also remove it from a
+     * dispatcher, use {@link SubscriptionHandle#cancel()}.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
     }
 
     @Override
     public Reachability getReachability() {
-        return subscriber instanceof Referencable ?
-                ((Referencable) subscriber).getReachability() :
-                Reachability.of(subscriber.getClass());
+        return reachability;
     }
 
     @Override
@@ -57,10 +87,17 @@ public final class Subscription<E> implements Referencable {
     }
 
     public static <E> Subscription<E> create(Topics matcher, Class<?> eventType, Subscriber<E> subscriber) {
+        return create(matcher, eventType, subscriber, null);
+    }
+
+    /**
+     * @param queue where the reference to a weak subscriber is enqueued once collected. Can be null.
+     */
+    public static <E> Subscription<E> create(Topics matcher, Class<?> eventType, Subscriber<E> subscriber, ReferenceQueue<Object> queue) {
         notNull(matcher, "TopicMatcher");
         notNull(eventType, "Event type");
         notNull(subscriber, "Subscriber");
-        return new Subscription<E>(matcher, eventType, subscriber);
+        return new Subscription<E>(matcher, eventType, subscriber, queue);
     }
 
 }
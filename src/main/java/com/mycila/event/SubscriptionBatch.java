@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2010 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.event;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Subscription changes applied together by {@link #commit()}: the cached subscriptions of each topic are rebuilt
+ * once for the whole batch and replaced in one step, so a publisher sees either none or all of the changes made
+ * on a topic. Unsubscriptions apply to the subscriptions which exist when the batch is committed, before the new
+ * ones are added.
+ * <p/>
+ * A batch is not thread-safe and can only be committed once.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public interface SubscriptionBatch {
+    <E> SubscriptionBatch subscribe(Topics matcher, Class<?> eventType, Subscriber<E> subscriber);
+
+    <E> SubscriptionBatch subscribeAsync(Topics matcher, Class<?> eventType, AsyncSubscriber<E> subscriber);
+
+    <E> SubscriptionBatch subscribe(Topics matcher, Class<?> eventType, BatchSubscriber<E> subscriber, int batchSize, long maxLatency, TimeUnit unit);
+
+    <E> SubscriptionBatch unsubscribe(Subscriber<E> subscriber);
+
+    <E> SubscriptionBatch unsubscribe(Topics matcher, Subscriber<E> subscriber);
+
+    /**
+     * @return the handles of the new subscriptions, in the order they were added to this batch
+     */
+    List<SubscriptionHandle> commit();
+}
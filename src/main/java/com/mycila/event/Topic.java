@@ -15,12 +15,19 @@
  */
 package com.mycila.event;
 
+import com.mycila.event.internal.TopicsMatcher;
+
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.List;
 import java.util.UUID;
 
 import static com.mycila.event.internal.Ensure.notNull;
 
 /**
+ * A topic name. Topics are interned: there is only one live instance per name, which carries its hash code,
+ * segments and id.
+ *
  * @author Mathieu Carbou (mathieu.carbou@gmail.com)
  */
 public final class Topic extends Topics implements Serializable {
@@ -28,28 +35,55 @@ public final class Topic extends Topics implements Serializable {
     private static final long serialVersionUID = 0;
 
     private final String name;
+    private final transient int hash;
+    private final transient int id;
+    private final transient List<String> segments;
 
-    private Topic(String name) {
-        this.name = notNull(name, "Topic name");
+    Topic(String name, int id) {
+        this.name = name;
+        this.hash = 31 * name.hashCode();
+        this.id = id;
+        this.segments = TopicsMatcher.segments(name);
     }
 
     public String getName() {
         return name;
     }
 
+    /**
+     * @return the non-empty, trimmed segments of this topic name
+     */
+    public List<String> getSegments() {
+        return segments;
+    }
+
+    /**
+     * @return a small number identifying this topic among the live ones. The id of a topic is reused once it has
+     *         been garbage collected.
+     */
+    public int getId() {
+        return id;
+    }
+
     @Override
     public boolean matches(Topic topic) {
         return equals(topic);
     }
 
+    @Override
+    public boolean decompose(Collection<? super Topics> parts) {
+        parts.add(this);
+        return true;
+    }
+
     @Override
     public boolean equals(Object other) {
-        return other instanceof Topic && ((Topic) other).name.equals(name);
+        return this == other || other instanceof Topic && ((Topic) other).hash == hash && ((Topic) other).name.equals(name);
     }
 
     @Override
     public int hashCode() {
-        return 31 * name.hashCode();
+        return hash;
     }
 
     @Override
@@ -66,11 +100,23 @@ public final class Topic extends Topics implements Serializable {
     }
 
     public static Topic topic(String name) {
-        return new Topic(name);
+        return TopicRegistry.intern(notNull(name, "Topic name"));
+    }
+
+    /**
+     * @return the live topic having this id, or null
+     * @see #getId()
+     */
+    public static Topic topic(int id) {
+        return TopicRegistry.get(id);
     }
 
     public static Topic random() {
-        return new Topic("temp/" + UUID.randomUUID().toString());
+        return topic("temp/" + UUID.randomUUID().toString());
+    }
+
+    private Object readResolve() {
+        return topic(name);
     }
 
 }
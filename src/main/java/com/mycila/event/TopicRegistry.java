@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2010 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.event;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Interns topics by name: while a topic is referenced, {@link Topic#topic(String)} returns the same instance for its
+ * name, so that its hash code and segments are computed once and topics are compared by identity. Topics which
+ * are no longer referenced are garbage collected.
+ * <p/>
+ * Each live topic has a distinct id. The ids of collected topics are reused, so they stay as small as the number
+ * of live topics and can index arrays.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class TopicRegistry {
+
+    private static final ConcurrentMap<String, TopicRef> TOPICS = new ConcurrentHashMap<String, TopicRef>();
+    private static final ReferenceQueue<Topic> COLLECTED = new ReferenceQueue<Topic>();
+    private static volatile AtomicReferenceArray<TopicRef> ids = new AtomicReferenceArray<TopicRef>(64);
+
+    // guarded by TopicRegistry.class
+    private static int[] freeIds = new int[16];
+    private static int freeCount;
+    private static int nextId;
+
+    private TopicRegistry() {
+    }
+
+    static Topic intern(String name) {
+        TopicRef ref = TOPICS.get(name);
+        Topic topic;
+        return ref != null && (topic = ref.get()) != null ? topic : create(name);
+    }
+
+    /**
+     * @return the live topic having this id, or null
+     */
+    static Topic get(int id) {
+        AtomicReferenceArray<TopicRef> ids = TopicRegistry.ids;
+        TopicRef ref;
+        return id >= 0 && id < ids.length() && (ref = ids.get(id)) != null ? ref.get() : null;
+    }
+
+    /**
+     * @return the number of live topics
+     */
+    static synchronized int size() {
+        reap();
+        return TOPICS.size();
+    }
+
+    private static synchronized Topic create(String name) {
+        reap();
+        TopicRef ref = TOPICS.get(name);
+        Topic topic;
+        if (ref != null && (topic = ref.get()) != null)
+            return topic;
+        int id = freeCount > 0 ? freeIds[--freeCount] : nextId++;
+        topic = new Topic(name, id);
+        ref = new TopicRef(topic, COLLECTED);
+        TOPICS.put(name, ref);
+        AtomicReferenceArray<TopicRef> ids = TopicRegistry.ids;
+        if (id >= ids.length()) {
+            AtomicReferenceArray<TopicRef> grown = new AtomicReferenceArray<TopicRef>(ids.length() * 2);
+            for (int i = 0, length = ids.length(); i < length; i++)
+                grown.set(i, ids.get(i));
+            TopicRegistry.ids = ids = grown;
+        }
+        ids.set(id, ref);
+        return topic;
+    }
+
+    private static void reap() {
+        TopicRef ref;
+        while ((ref = (TopicRef) COLLECTED.poll()) != null) {
+            TOPICS.remove(ref.name, ref);
+            ids.compareAndSet(ref.id, ref, null);
+            if (freeCount == freeIds.length)
+                freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+            freeIds[freeCount++] = ref.id;
+        }
+    }
+
+    private static final class TopicRef extends WeakReference<Topic> {
+        final String name;
+        final int id;
+
+        TopicRef(Topic topic, ReferenceQueue<Topic> queue) {
+            super(topic, queue);
+            this.name = topic.getName();
+            this.id = topic.getId();
+        }
+    }
+
+}
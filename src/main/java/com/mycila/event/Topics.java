@@ -15,10 +15,12 @@
  */
 package com.mycila.event;
 
+import com.mycila.event.internal.TopicsAutomaton;
 import com.mycila.event.internal.TopicsMatcher;
 
 import java.io.Serializable;
 import java.util.Arrays;
+import java.util.Collection;
 
 import static com.mycila.event.Topic.topic;
 import static com.mycila.event.internal.Ensure.notNull;
@@ -39,6 +41,29 @@ public abstract class Topics {
     @Override
     public abstract String toString();
 
+    /**
+     * Collects the exact {@link Topic}s and topic patterns this matcher is the union of, so that subscriptions
+     * can be indexed by topic segments instead of being tested one by one.
+     *
+     * @param parts receives the exact topics and pattern matchers of the union
+     * @return false if this matcher is not such an union (negations, intersections, custom matchers)
+     */
+    public boolean decompose(Collection<? super Topics> parts) {
+        return false;
+    }
+
+    /**
+     * Compiles this expression into a single automaton which decides all its patterns in one pass over the
+     * segments of a topic, instead of evaluating each branch on its own. Worth it for expressions combining
+     * many patterns, like {@code anyOf(...)} with dozens of patterns.
+     *
+     * @return an equivalent matcher, equal to the other compilations of this expression
+     */
+    public Topics compile() {
+        TopicsAutomaton.Builder builder = TopicsAutomaton.builder();
+        return builder.build(this, expression(this, builder));
+    }
+
     public final Topics or(Topics other) {
         return new OrMatcher(this, notNull(other, "TopicMatcher"));
     }
@@ -87,6 +112,33 @@ public abstract class Topics {
 
     /* PRIVATE */
 
+    private static TopicsAutomaton.Expression expression(Topics matcher, TopicsAutomaton.Builder builder) {
+        if (matcher instanceof Delegate)
+            return expression(((Delegate) matcher).matcher, builder);
+        if (matcher instanceof TopicsAutomaton)
+            return expression(((TopicsAutomaton) matcher).getSource(), builder);
+        if (matcher instanceof TopicsMatcher)
+            return builder.pattern((TopicsMatcher) matcher);
+        if (matcher instanceof Topic)
+            return builder.exact((Topic) matcher);
+        if (matcher instanceof Only)
+            return builder.exact(((Only) matcher).topic);
+        if (matcher instanceof Not)
+            return builder.not(expression(((Not) matcher).matcher, builder));
+        if (matcher instanceof OrMatcher)
+            return builder.or(expression(((OrMatcher) matcher).a, builder), expression(((OrMatcher) matcher).b, builder));
+        if (matcher instanceof AndMatcher)
+            return builder.and(expression(((AndMatcher) matcher).a, builder), expression(((AndMatcher) matcher).b, builder));
+        if (matcher instanceof AnyOf) {
+            Topics[] matchers = ((AnyOf) matcher).matchers;
+            TopicsAutomaton.Expression[] expressions = new TopicsAutomaton.Expression[matchers.length];
+            for (int i = 0; i < matchers.length; i++)
+                expressions[i] = expression(matchers[i], builder);
+            return builder.or(expressions);
+        }
+        return builder.custom(matcher);
+    }
+
     private static final Topics ANY = match("**");
 
     private static class AndMatcher extends Topics implements Serializable {
@@ -137,6 +189,11 @@ public abstract class Topics {
             return a.matches(t) || b.matches(t);
         }
 
+        @Override
+        public boolean decompose(Collection<? super Topics> parts) {
+            return a.decompose(parts) && b.decompose(parts);
+        }
+
         @Override
         public boolean equals(Object other) {
             return other instanceof OrMatcher
@@ -168,6 +225,11 @@ public abstract class Topics {
             return matcher.matches(notNull(t, "Topic"));
         }
 
+        @Override
+        public boolean decompose(Collection<? super Topics> parts) {
+            return matcher.decompose(parts);
+        }
+
         @Override
         public boolean equals(Object other) {
             return other instanceof Delegate && ((Delegate) other).matcher.equals(matcher);
@@ -226,6 +288,12 @@ public abstract class Topics {
             return topic.equals(other);
         }
 
+        @Override
+        public boolean decompose(Collection<? super Topics> parts) {
+            parts.add(topic);
+            return true;
+        }
+
         @Override
         public boolean equals(Object other) {
             return other instanceof Only && ((Only) other).topic.equals(topic);
@@ -259,6 +327,14 @@ public abstract class Topics {
             return false;
         }
 
+        @Override
+        public boolean decompose(Collection<? super Topics> parts) {
+            for (Topics matcher : matchers)
+                if (!matcher.decompose(parts))
+                    return false;
+            return true;
+        }
+
         @Override
         public boolean equals(Object other) {
             return other instanceof AnyOf && Arrays.equals(((AnyOf) other).matchers, matchers);
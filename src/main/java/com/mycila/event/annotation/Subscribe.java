@@ -33,4 +33,15 @@ public @interface Subscribe {
     String[] topics();
 
     Class<?> eventType() default Object.class;
+
+    /**
+     * When greater than 1, the method receives a {@code List} of at most this number of events or event sources
+     */
+    int batchSize() default 1;
+
+    /**
+     * Microseconds the first event of a batch can wait before the batch is delivered, even if it is not full.
+     * 0 means no maximum latency: batches are only delivered once full.
+     */
+    long maxLatency() default 0;
 }
@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2010 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.event.internal;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.mycila.event.AsyncSubscriber;
+import com.mycila.event.ErrorHandler;
+import com.mycila.event.Event;
+import com.mycila.event.Reachability;
+import com.mycila.event.Ref;
+import com.mycila.event.Referencable;
+import com.mycila.event.Subscriber;
+import com.mycila.event.SubscriberExecutionException;
+import com.mycila.event.Subscription;
+
+import java.lang.ref.ReferenceQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import static com.mycila.event.internal.Ensure.notNull;
+
+/**
+ * Subscribes an {@link AsyncSubscriber}. The dispatcher recognizes it and calls {@link #call} to get the completion
+ * of the delivery and report its failure. {@link #onEvent(Event)} does not wait for the future: only the failure of
+ * a future already done is thrown, for callers using it as a plain subscriber.
+ * <p/>
+ * A future already done is checked by the calling thread, so that its failure goes through the error handler like
+ * the one of a synchronous subscriber. A pending future is listened to: no thread waits for it.
+ * <p/>
+ * The target is referenced with its own reachability: once a weak target is collected, events are dropped and
+ * the subscription ends.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class AsyncSubscriberAdapter<E> implements Subscriber<E>, SubscriberAdapter, Referencable {
+
+    private final Ref<AsyncSubscriber<E>> target;
+    private final Reachability reachability;
+
+    /**
+     * @param queue where the reference to a weak target is enqueued once collected. Can be null.
+     */
+    AsyncSubscriberAdapter(AsyncSubscriber<E> target, ReferenceQueue<Object> queue) {
+        notNull(target, "AsyncSubscriber");
+        this.reachability = Reachability.of(target);
+        this.target = reachability.wrap(target, queue);
+    }
+
+    @Override
+    public boolean isCollected() {
+        return target.get() == null;
+    }
+
+    @Override
+    public Reachability getReachability() {
+        return reachability;
+    }
+
+    @Override
+    public void onEvent(Event<E> event) throws Exception {
+        AsyncSubscriber<E> target = this.target.get();
+        if (target == null)
+            return;
+        ListenableFuture<?> future = target.onEvent(EventHolder.retain(event));
+        if (future != null && future.isDone()) {
+            Exception failure = failure(future);
+            if (failure != null)
+                throw failure;
+        }
+    }
+
+    /**
+     * Calls the subscriber and reports the failure of its future to the error handler
+     *
+     * @return the completion of the delivery, or null if it is over
+     */
+    ListenableFuture<?> call(final Subscription<E> subscription, Event<E> event, final ErrorHandler errorHandler) throws Exception {
+        AsyncSubscriber<E> target = this.target.get();
+        if (target == null)
+            return null;
+        final Event<E> retained = EventHolder.retain(event);
+        final ListenableFuture<?> future = target.onEvent(retained);
+        if (future == null)
+            return null;
+        if (!future.isDone()) {
+            future.addListener(new Runnable() {
+                public void run() {
+                    Exception failure = failure(future);
+                    if (failure != null)
+                        errorHandler.onError(subscription, retained, failure);
+                }
+            }, DirectExecutor.immediate());
+            return future;
+        }
+        Exception failure = failure(future);
+        if (failure != null)
+            errorHandler.onError(subscription, retained, failure);
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(target.get());
+    }
+
+    /**
+     * @param future the completion of the delivery, which is done
+     */
+    private static Exception failure(ListenableFuture<?> future) {
+        try {
+            Uninterruptibles.getUninterruptibly(future);
+            return null;
+        } catch (CancellationException e) {
+            return e;
+        } catch (ExecutionException e) {
+            return e.getCause() instanceof Exception ? (Exception) e.getCause() : SubscriberExecutionException.wrap(e);
+        }
+    }
+
+}
@@ -0,0 +1,196 @@
+/**
+ * Copyright (C) 2010 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.event.internal;
+
+import com.mycila.event.BatchSubscriber;
+import com.mycila.event.ErrorHandler;
+import com.mycila.event.Event;
+import com.mycila.event.Reachability;
+import com.mycila.event.Ref;
+import com.mycila.event.Referencable;
+import com.mycila.event.Subscriber;
+import com.mycila.event.Subscription;
+
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static com.mycila.event.internal.Ensure.notNull;
+
+/**
+ * Buffers the events of a {@link BatchSubscriber} and hands them over when the batch is full, or when its first
+ * event has waited for the maximum latency, if there is one. Full batches are delivered by the thread calling the
+ * subscriber; late batches are flushed by a timer through the subscriber executor, or by the timer thread itself
+ * when the executor rejects the flush.
+ * <p/>
+ * Batches are delivered one at a time and in order. The failure of a batch is reported to the error handler
+ * for each of its events, and an event published with tracking completes once its batch has been delivered.
+ * <p/>
+ * The target is referenced with its own reachability: once a weak target is collected, events are dropped and
+ * the subscription ends.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class BatchingSubscriber<E> implements Subscriber<E>, SubscriberAdapter, Referencable {
+
+    private final Ref<BatchSubscriber<E>> target;
+    private final Reachability reachability;
+    private final int batchSize;
+    private final long maxLatency;
+    private final Executor executor;
+    private final ErrorHandler errorHandler;
+    private Subscription<E> subscription;
+
+    // guarded by this
+    private List<Event<E>> pending;
+    private long generation;
+
+    /**
+     * @param queue where the reference to a weak target is enqueued once collected. Can be null.
+     */
+    BatchingSubscriber(BatchSubscriber<E> target, int batchSize, long maxLatency, TimeUnit unit, Executor executor, ErrorHandler errorHandler, ReferenceQueue<Object> queue) {
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        if (maxLatency < 0)
+            throw new IllegalArgumentException("Maximum latency must not be negative: " + maxLatency);
+        notNull(target, "BatchSubscriber");
+        this.reachability = Reachability.of(target);
+        this.target = reachability.wrap(target, queue);
+        this.batchSize = batchSize;
+        this.maxLatency = notNull(unit, "Time unit").toNanos(maxLatency);
+        this.executor = executor;
+        this.errorHandler = errorHandler;
+        this.pending = new ArrayList<Event<E>>(batchSize);
+    }
+
+    void setSubscription(Subscription<E> subscription) {
+        this.subscription = subscription;
+    }
+
+    @Override
+    public boolean isCollected() {
+        return target.get() == null;
+    }
+
+    @Override
+    public Reachability getReachability() {
+        return reachability;
+    }
+
+    @Override
+    public void onEvent(Event<E> event) {
+        add(event);
+    }
+
+    /**
+     * Adds an event to the current batch, and delivers the batch if it is full. Failures are reported by this
+     * subscriber: only an error rethrown by the error handler is thrown.
+     */
+    synchronized void add(Event<E> event) {
+        // the event may be reused once this call returns
+        pending.add(EventHolder.retain(event));
+        if (pending.size() >= batchSize)
+            deliver(take());
+        else if (pending.size() == 1 && maxLatency > 0) {
+            final long scheduled = generation;
+            Timer.INSTANCE.schedule(new Runnable() {
+                public void run() {
+                    try {
+                        executor.execute(new Runnable() {
+                            public void run() {
+                                flush(scheduled);
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        // the batch would otherwise wait for the next one to be full
+                        flush(scheduled);
+                    }
+                }
+            }, maxLatency, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private synchronized void flush(long scheduled) {
+        if (generation == scheduled && !pending.isEmpty())
+            deliver(take());
+    }
+
+    private List<Event<E>> take() {
+        List<Event<E>> batch = pending;
+        pending = new ArrayList<Event<E>>(batchSize);
+        generation++;
+        return batch;
+    }
+
+    /**
+     * Delivers a batch, then completes its tracked events, once its failure has been reported
+     */
+    @SuppressWarnings({"unchecked"})
+    private void deliver(List<Event<E>> batch) {
+        try {
+            BatchSubscriber<E> target = this.target.get();
+            if (target != null)
+                target.onEvents(batch);
+        } catch (Exception e) {
+            report(batch, e);
+        } finally {
+            for (Event<E> event : batch)
+                if (event instanceof TrackedEvent)
+                    ((TrackedEvent<E>) event).completed();
+        }
+    }
+
+    /**
+     * Reports the failure of a batch for each of its events. An error rethrown by the error handler is rethrown once
+     * all of them have been reported.
+     */
+    private void report(List<Event<E>> events, Exception e) {
+        RuntimeException rethrown = null;
+        for (Event<E> event : events) {
+            try {
+                errorHandler.onError(subscription, event, e);
+            } catch (RuntimeException re) {
+                if (rethrown == null)
+                    rethrown = re;
+            }
+        }
+        if (rethrown != null)
+            throw rethrown;
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(target.get());
+    }
+
+    private static final class Timer {
+        static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "mycila-event-batch-timer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+}
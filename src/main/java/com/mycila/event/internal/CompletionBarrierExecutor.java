@@ -0,0 +1,224 @@
+/**
+ * Copyright (C) 2010 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.event.internal;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.mycila.event.Event;
+import com.mycila.event.Subscription;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.mycila.event.internal.Ensure.notNull;
+
+/**
+ * Runs subscriber calls on an executor and lets the publishing thread wait for all of them with
+ * {@link #awaitCompletion()}, before dispatching the next event.
+ * <p/>
+ * Calls are counted with a single atomic counter and the publishing thread is parked once, woken up by the last
+ * call to complete. The call of an {@link com.mycila.event.AsyncSubscriber} completes with its future. The tasks
+ * carrying the calls are reused from one event to the next, since they have all completed when the next event is
+ * dispatched: the steady state does not allocate.
+ * <p/>
+ * Only one thread at a time can dispatch through this executor and wait for completion.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class CompletionBarrierExecutor extends DeliveryExecutor {
+
+    private final Executor executor;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final List<Task> tasks = new ArrayList<Task>();
+    private final ThreadLocal<Boolean> calling = new ThreadLocal<Boolean>();
+    private int used;
+    private volatile Thread waiter;
+    private final Runnable completion = new Runnable() {
+        public void run() {
+            completed();
+        }
+    };
+
+    public CompletionBarrierExecutor(Executor executor) {
+        this.executor = notNull(executor, "Executor");
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        notNull(command, "Runnable");
+        submit(new Runnable() {
+            public void run() {
+                Boolean outer = calling.get();
+                calling.set(Boolean.TRUE);
+                try {
+                    command.run();
+                } finally {
+                    calling.set(outer);
+                    completed();
+                }
+            }
+        });
+    }
+
+    @Override
+    @SuppressWarnings({"unchecked"})
+    <E> void deliver(DefaultDispatcher dispatcher, Subscription<E> subscription, Event<E> event) {
+        Task task;
+        if (used < tasks.size())
+            task = tasks.get(used);
+        else
+            tasks.add(task = new Task());
+        used++;
+        task.dispatcher = dispatcher;
+        task.subscription = (Subscription<Object>) (Subscription<?>) subscription;
+        task.event = (Event<Object>) (Event<?>) event;
+        submit(task);
+    }
+
+    /**
+     * @return true if the current thread is running a call submitted to this executor, which the publishing thread
+     *         may be waiting for
+     */
+    public boolean isCalling() {
+        return calling.get() != null;
+    }
+
+    /**
+     * Waits for all the calls submitted since the last call to this method to complete
+     */
+    public void awaitCompletion() {
+        if (pending.get() != 0) {
+            boolean interrupted = false;
+            waiter = Thread.currentThread();
+            while (pending.get() != 0) {
+                LockSupport.park(this);
+                if (Thread.interrupted())
+                    interrupted = true;
+            }
+            waiter = null;
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+        for (int i = 0; i < used; i++)
+            tasks.get(i).clear();
+        used = 0;
+    }
+
+    /**
+     * Hands over the batch as a single task, so that the subscription receives its events in order and one at a
+     * time. The task completes once the last call, and the future of an asynchronous subscriber, has completed.
+     */
+    @Override
+    @SuppressWarnings({"unchecked"})
+    <E> void deliverAll(DefaultDispatcher dispatcher, Subscription<E> subscription, List<Event<E>> events) {
+        submit(new BatchTask(dispatcher, (Subscription<Object>) (Subscription<?>) subscription, (List<Event<Object>>) (List<?>) events));
+    }
+
+    private void submit(Runnable task) {
+        pending.incrementAndGet();
+        try {
+            executor.execute(task);
+        } catch (RuntimeException e) {
+            pending.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private void completed() {
+        if (pending.decrementAndGet() == 0) {
+            Thread waiter = this.waiter;
+            if (waiter != null)
+                LockSupport.unpark(waiter);
+        }
+    }
+
+    private final class Task implements Runnable {
+        DefaultDispatcher dispatcher;
+        Subscription<Object> subscription;
+        Event<Object> event;
+
+        @Override
+        public void run() {
+            ListenableFuture<?> future = null;
+            Boolean outer = calling.get();
+            calling.set(Boolean.TRUE);
+            try {
+                future = dispatcher.deliver(subscription, event);
+            } finally {
+                calling.set(outer);
+                if (future == null)
+                    completed();
+                else
+                    future.addListener(completion, DirectExecutor.immediate());
+            }
+        }
+
+        void clear() {
+            dispatcher = null;
+            subscription = null;
+            event = null;
+        }
+    }
+
+    private final class BatchTask implements Runnable {
+        final DefaultDispatcher dispatcher;
+        final Subscription<Object> subscription;
+        final List<Event<Object>> events;
+        int next;
+        RuntimeException failure;
+
+        BatchTask(DefaultDispatcher dispatcher, Subscription<Object> subscription, List<Event<Object>> events) {
+            this.dispatcher = dispatcher;
+            this.subscription = subscription;
+            this.events = events;
+        }
+
+        @Override
+        public void run() {
+            boolean waiting = false;
+            Boolean outer = calling.get();
+            calling.set(Boolean.TRUE);
+            try {
+                while (next < events.size()) {
+                    ListenableFuture<?> future;
+                    try {
+                        future = dispatcher.deliver(subscription, events.get(next++));
+                    } catch (RuntimeException e) {
+                        // rethrown by the error handler: the next events are still delivered
+                        if (failure == null)
+                            failure = e;
+                        continue;
+                    }
+                    if (future != null && !future.isDone()) {
+                        // the next event waits for the asynchronous subscriber
+                        future.addListener(this, executor);
+                        waiting = true;
+                        return;
+                    }
+                }
+            } finally {
+                calling.set(outer);
+                if (!waiting)
+                    completed();
+            }
+            if (failure != null)
+                throw failure;
+        }
+    }
+
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2010 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.event.internal;
+
+import com.google.common.collect.MapMaker;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.mycila.event.Event;
+import com.mycila.event.Subscription;
+import com.mycila.event.Topic;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+import static com.mycila.event.internal.Ensure.notNull;
+
+/**
+ * Keeps at most one pending event per topic for each subscription: an event published while the previous one on
+ * the same topic is still waiting replaces it, at its place in the queue. A slow subscriber thus only costs one
+ * event per topic and always receives the latest value.
+ * <p>
+ * Like a mailbox, the pending events of a subscription are drained by a task which is only scheduled on the
+ * shared executor while there is something to deliver, so a subscription is never called by two threads at a time.
+ * The next event for an {@link com.mycila.event.AsyncSubscriber} waits for the future of the previous one.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class ConflatingExecutor extends DeliveryExecutor {
+
+    private static final int THROUGHPUT = 64;
+
+    private final ConcurrentMap<Subscription<?>, Slots> slots = new MapMaker().weakKeys().makeMap();
+    private final Executor executor;
+
+    public ConflatingExecutor(Executor executor) {
+        this.executor = notNull(executor, "Executor");
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        executor.execute(command);
+    }
+
+    @Override
+    <E> void deliver(DefaultDispatcher dispatcher, Subscription<E> subscription, Event<E> event) {
+        Slots pending = slots.get(subscription);
+        if (pending == null) {
+            pending = new Slots(dispatcher, subscription);
+            Slots old = slots.putIfAbsent(subscription, pending);
+            if (old != null) pending = old;
+        }
+        pending.post(event);
+    }
+
+    private final class Slots implements Runnable {
+        // guarded by this
+        final Map<Topic, Event<?>> events = new LinkedHashMap<Topic, Event<?>>();
+        boolean scheduled;
+        final DefaultDispatcher dispatcher;
+        final WeakReference<Subscription<?>> subscription;
+
+        Slots(DefaultDispatcher dispatcher, Subscription<?> subscription) {
+            this.dispatcher = dispatcher;
+            this.subscription = new WeakReference<Subscription<?>>(subscription);
+        }
+
+        void post(Event<?> event) {
+            boolean schedule = false;
+            synchronized (this) {
+                Event<?> replaced = events.put(event.getTopic(), event);
+                if (replaced != null)
+                    DefaultDispatcher.skipped(replaced);
+                if (!scheduled)
+                    scheduled = schedule = true;
+            }
+            if (schedule)
+                executor.execute(this);
+        }
+
+        @Override
+        @SuppressWarnings({"unchecked"})
+        public void run() {
+            Subscription<Object> s = (Subscription<Object>) subscription.get();
+            boolean drained = false;
+            boolean waiting = false;
+            try {
+                for (int i = 0; i < THROUGHPUT; i++) {
+                    Event<Object> event;
+                    synchronized (this) {
+                        Iterator<Event<?>> it = events.values().iterator();
+                        if (!it.hasNext()) {
+                            scheduled = false;
+                            drained = true;
+                            return;
+                        }
+                        event = (Event<Object>) it.next();
+                        it.remove();
+                    }
+                    if (s == null) {
+                        DefaultDispatcher.skipped(event);
+                        continue;
+                    }
+                    ListenableFuture<?> future = dispatcher.deliver(s, event);
+                    if (future != null && !future.isDone()) {
+                        // the next event waits for the asynchronous subscriber: still scheduled meanwhile
+                        future.addListener(this, executor);
+                        waiting = true;
+                        return;
+                    }
+                }
+            } finally {
+                // leave the executor to other subscriptions, or recover from a failing subscriber
+                if (!drained && !waiting)
+                    executor.execute(this);
+            }
+        }
+    }
+
+}
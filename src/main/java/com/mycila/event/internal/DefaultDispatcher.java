@@ -15,67 +15,161 @@
  */
 package com.mycila.event.internal;
 
-import com.mycila.event.Dispatcher;
+import com.google.common.base.Predicate;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.mycila.event.AsyncSubscriber;
+import com.mycila.event.BatchSubscriber;
+import com.mycila.event.Delivery;
 import com.mycila.event.ErrorHandler;
 import com.mycila.event.Event;
+import com.mycila.event.ExtendedDispatcher;
 import com.mycila.event.Subscriber;
 import com.mycila.event.Subscription;
+import com.mycila.event.SubscriptionBatch;
+import com.mycila.event.SubscriptionHandle;
 import com.mycila.event.Topic;
 import com.mycila.event.Topics;
 
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import static com.mycila.event.internal.Ensure.notNull;
 
 /**
  * @author Mathieu Carbou (mathieu.carbou@gmail.com)
  */
-public class DefaultDispatcher implements Dispatcher {
+public class DefaultDispatcher implements ExtendedDispatcher {
 
-    private final SubscriptionManager subscriptionManager = new SubscriptionManager();
+    /**
+     * Default number of topics whose subscriptions are kept resolved
+     */
+    public static final int DEFAULT_TOPIC_CACHE_SIZE = 4096;
+
+    private final SubscriptionManager subscriptionManager;
     private final ErrorHandler errorHandler;
     private final Executor publishExecutor;
     private final Executor subscriberExecutor;
+    private final boolean reuseEvents;
 
     public DefaultDispatcher(ErrorHandler errorHandler,
                              Executor publishExecutor,
                              Executor subscriberExecutor) {
-        this.errorHandler = notNull(errorHandler, "ErrorHandler");
+        this(errorHandler, publishExecutor, subscriberExecutor, DEFAULT_TOPIC_CACHE_SIZE);
+    }
+
+    public DefaultDispatcher(ErrorHandler errorHandler,
+                             Executor publishExecutor,
+                             Executor subscriberExecutor,
+                             int topicCacheSize) {
+        this(errorHandler, publishExecutor, subscriberExecutor, topicCacheSize, false);
+    }
+
+    /**
+     * @param reuseEvents true to hand the same {@link Event} object to the subscribers of each publication, which
+     *                    is then only valid during their call: see {@link Event}. Only possible when both executors
+     *                    are synchronous.
+     */
+    public DefaultDispatcher(ErrorHandler errorHandler,
+                             Executor publishExecutor,
+                             Executor subscriberExecutor,
+                             int topicCacheSize,
+                             boolean reuseEvents) {
+        if (reuseEvents && !(publishExecutor instanceof DirectExecutor && subscriberExecutor instanceof DirectExecutor))
+            throw new IllegalArgumentException("Events can only be reused by a synchronous dispatcher");
+        this.subscriptionManager = new SubscriptionManager(topicCacheSize);
+        this.errorHandler = tracking(notNull(errorHandler, "ErrorHandler"));
         this.publishExecutor = notNull(publishExecutor, "Publishing executor");
         this.subscriberExecutor = notNull(subscriberExecutor, "Subscriber executor");
+        this.reuseEvents = reuseEvents;
     }
 
     @Override
     public final <E> void publish(final Topic topic, final E source) {
         notNull(topic, "Topic");
         notNull(source, "Event source");
-        publishExecutor.execute(new Runnable() {
-            public void run() {
-                final Event<E> event = event(topic, source);
-                final Iterator<Subscription<E>> subscriptionIterator = subscriptionManager.getSubscriptions(event);
-                while (subscriptionIterator.hasNext()) {
-                    final Subscription<E> subscription = subscriptionIterator.next();
-                    subscriberExecutor.execute(new Runnable() {
-                        public void run() {
-                            try {
-                                subscription.getSubscriber().onEvent(event);
-                            } catch (Exception e) {
-                                errorHandler.onError(subscription, event, e);
-                            }
-                        }
-                    });
+        if (publishExecutor instanceof PublishExecutor)
+            ((PublishExecutor) publishExecutor).publish(this, topic, source);
+        else
+            publishExecutor.execute(new Runnable() {
+                public void run() {
+                    dispatch(topic, source);
                 }
-            }
-        });
+            });
+    }
+
+    @Override
+    public final <E> Delivery publishTracked(Topic topic, E source) {
+        notNull(topic, "Topic");
+        notNull(source, "Event source");
+        TrackedEvent<E> event = new TrackedEvent<E>(topic, source);
+        if (publishExecutor instanceof PublishExecutor)
+            ((PublishExecutor) publishExecutor).publishTracked(this, event);
+        else
+            publishExecutor.execute(event.publication(this));
+        return event;
+    }
+
+    @Override
+    public final <E> void publish(int topicId, E source) {
+        Topic topic = Topic.topic(topicId);
+        if (topic == null)
+            throw new IllegalArgumentException("Unknown topic id: " + topicId);
+        publish(topic, source);
+    }
+
+    @Override
+    public final <E> void publishAll(Topic topic, Iterable<? extends E> sources) {
+        notNull(sources, "Event sources");
+        publishAll(topic, Iterables.toArray(sources, Object.class));
+    }
+
+    @Override
+    public final <E> void publishAll(final Topic topic, E[] sources) {
+        notNull(topic, "Topic");
+        notNull(sources, "Event sources");
+        final Object[] copy = sources.clone();
+        for (Object source : copy)
+            notNull(source, "Event source");
+        if (copy.length == 0)
+            return;
+        if (publishExecutor instanceof PublishExecutor)
+            ((PublishExecutor) publishExecutor).publishAll(this, topic, copy);
+        else
+            publishExecutor.execute(new Runnable() {
+                public void run() {
+                    dispatchAll(topic, copy);
+                }
+            });
     }
 
     @Override
     public final <E> void subscribe(Topics matcher, Class<?> eventType, Subscriber<E> subscriber) {
+        subscribeWithHandle(matcher, eventType, subscriber);
+    }
+
+    @Override
+    public final <E> SubscriptionHandle subscribeWithHandle(Topics matcher, Class<?> eventType, Subscriber<E> subscriber) {
         notNull(matcher, "TopicMatcher");
         notNull(eventType, "Event type");
         notNull(subscriber, "Subscriber");
-        subscriptionManager.addSubscription(Subscription.create(matcher, eventType, subscriber));
+        return subscriptionManager.addSubscription(Subscription.create(matcher, eventType, subscriber, subscriptionManager.getReferenceQueue()));
+    }
+
+    @Override
+    public final <E> SubscriptionHandle subscribeAsync(Topics matcher, Class<?> eventType, AsyncSubscriber<E> subscriber) {
+        notNull(matcher, "TopicMatcher");
+        notNull(eventType, "Event type");
+        notNull(subscriber, "Subscriber");
+        return subscriptionManager.addSubscription(Subscription.create(matcher, eventType, new AsyncSubscriberAdapter<E>(subscriber, subscriptionManager.getReferenceQueue()), subscriptionManager.getReferenceQueue()));
+    }
+
+    @Override
+    public final <E> SubscriptionHandle subscribe(Topics matcher, Class<?> eventType, BatchSubscriber<E> subscriber, int batchSize, long maxLatency, TimeUnit unit) {
+        return subscriptionManager.addSubscription(subscription(matcher, eventType, subscriber, batchSize, maxLatency, unit));
     }
 
     @Override
@@ -91,10 +185,231 @@ public class DefaultDispatcher implements Dispatcher {
         subscriptionManager.removeSubscriber(matcher, subscriber);
     }
 
+    @Override
+    public final SubscriptionBatch batch() {
+        return new Batch();
+    }
+
     @Override
     public void close() {
     }
 
+    /**
+     * @return the hit, miss and eviction counts of the cache of resolved topic subscriptions. A miss is a topic
+     *         published for the first time or after having been evicted.
+     */
+    public final CacheStats getTopicCacheStats() {
+        return subscriptionManager.getStats();
+    }
+
+    /**
+     * @return the number of weak subscriptions removed because their subscriber has been garbage collected
+     */
+    public final long getReapedSubscriptionCount() {
+        return subscriptionManager.getReapedCount();
+    }
+
+    final <E> void dispatch(Topic topic, E source) {
+        dispatch(topic, subscriptionManager.getSubscriptions(topic), source);
+    }
+
+    @SuppressWarnings({"unchecked"})
+    final void dispatchAll(Topic topic, Object[] sources) {
+        final SubscriptionList subscriptionList = subscriptionManager.getSubscriptions(topic);
+        if (subscriberExecutor instanceof DirectExecutor) {
+            for (Object source : sources)
+                dispatch(topic, subscriptionList, source);
+            return;
+        }
+        final List<Event<Object>> events = new ArrayList<Event<Object>>(sources.length);
+        for (Object source : sources)
+            events.add(event(topic, source));
+        for (Subscription<?> s : subscriptionList.snapshot()) {
+            final Subscription<Object> subscription = (Subscription<Object>) s;
+            if (subscription.getSubscriber() == null)
+                continue;
+            final List<Event<Object>> accepted = accepted(subscription, events);
+            if (accepted.isEmpty())
+                continue;
+            if (subscriberExecutor instanceof DeliveryExecutor)
+                ((DeliveryExecutor) subscriberExecutor).deliverAll(this, subscription, accepted);
+            else
+                subscriberExecutor.execute(new Runnable() {
+                    public void run() {
+                        deliverEach(subscription, accepted);
+                    }
+                });
+        }
+    }
+
+    final <E> void dispatch(TrackedEvent<E> event) {
+        try {
+            Subscription<?>[] subscriptions = subscriptionManager.getSubscriptions(event.getTopic()).forType(event.getSource().getClass());
+            event.dispatching(subscriptions.length);
+            deliverAll(subscriptions, event);
+            event.completed();
+        } catch (RuntimeException e) {
+            event.abort(e);
+            throw e;
+        }
+    }
+
+    private <E> void dispatch(Topic topic, SubscriptionList subscriptionList, E source) {
+        final Subscription<?>[] subscriptions = subscriptionList.forType(source.getClass());
+        if (reuseEvents) {
+            final Event<E> event = EventHolder.acquire(topic, source);
+            try {
+                deliverAll(subscriptions, event);
+            } finally {
+                EventHolder.release(event);
+            }
+        } else
+            deliverAll(subscriptions, event(topic, source));
+    }
+
+    @SuppressWarnings({"unchecked"})
+    private <E> void deliverAll(Subscription<?>[] subscriptions, final Event<E> event) {
+        if (subscriberExecutor instanceof DirectExecutor) {
+            final DirectExecutor executor = (DirectExecutor) subscriberExecutor;
+            for (int i = 0, length = subscriptions.length; i < length; i++) {
+                final Subscription<E> subscription = (Subscription<E>) subscriptions[i];
+                final Subscriber<E> subscriber = subscription.getSubscriber();
+                if (subscriber != null) {
+                    executor.enter();
+                    try {
+                        deliver(subscription, subscriber, event);
+                    } finally {
+                        executor.exit();
+                    }
+                } else
+                    skipped(event);
+            }
+        } else if (subscriberExecutor instanceof ForkJoinFanOutExecutor) {
+            ((ForkJoinFanOutExecutor) subscriberExecutor).fanOut(this, subscriptions, event);
+        } else {
+            for (int i = 0, length = subscriptions.length; i < length; i++) {
+                final Subscription<E> subscription = (Subscription<E>) subscriptions[i];
+                if (subscription.getSubscriber() == null)
+                    skipped(event);
+                else if (subscriberExecutor instanceof DeliveryExecutor)
+                    ((DeliveryExecutor) subscriberExecutor).deliver(this, subscription, event);
+                else if (event instanceof TrackedEvent)
+                    subscriberExecutor.execute(((TrackedEvent<E>) event).call(this, subscription));
+                else
+                    subscriberExecutor.execute(new Runnable() {
+                        public void run() {
+                            deliver(subscription, event);
+                        }
+                    });
+            }
+        }
+    }
+
+    /**
+     * Delivers an event one subscription after the other. An error rethrown by the error handler does not stop
+     * the delivery to the next subscriptions: the first one is rethrown once all of them have been delivered.
+     */
+    @SuppressWarnings({"unchecked"})
+    final <E> void deliverEach(Subscription<?>[] subscriptions, int from, int to, Event<E> event) {
+        RuntimeException failure = null;
+        for (int i = from; i < to; i++) {
+            try {
+                deliver((Subscription<E>) subscriptions[i], event);
+            } catch (RuntimeException e) {
+                if (failure == null)
+                    failure = e;
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * Delivers events one after the other to a subscription. An error rethrown by the error handler does not stop
+     * the delivery of the next events: the first one is rethrown once all of them have been delivered.
+     */
+    final <E> void deliverEach(Subscription<E> subscription, List<Event<E>> events) {
+        RuntimeException failure = null;
+        for (int i = 0, size = events.size(); i < size; i++) {
+            try {
+                deliver(subscription, events.get(i));
+            } catch (RuntimeException e) {
+                if (failure == null)
+                    failure = e;
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * @return the completion of the delivery to an {@link AsyncSubscriber}, or null if the delivery is over
+     */
+    final <E> ListenableFuture<?> deliver(Subscription<E> subscription, Event<E> event) {
+        Subscriber<E> subscriber = subscription.getSubscriber();
+        if (subscriber != null)
+            return deliver(subscription, subscriber, event);
+        skipped(event);
+        return null;
+    }
+
+    private <E> ListenableFuture<?> deliver(Subscription<E> subscription, Subscriber<E> subscriber, Event<E> event) {
+        if (subscriber instanceof BatchingSubscriber) {
+            // reports the failures of its batches and completes their tracked events itself
+            ((BatchingSubscriber<E>) subscriber).add(event);
+            return null;
+        }
+        ListenableFuture<?> future = null;
+        try {
+            if (subscriber instanceof AsyncSubscriberAdapter)
+                future = ((AsyncSubscriberAdapter<E>) subscriber).call(subscription, event, errorHandler);
+            else
+                subscriber.onEvent(event);
+        } catch (Exception e) {
+            errorHandler.onError(subscription, event, e);
+        } finally {
+            if (event instanceof TrackedEvent)
+                ((TrackedEvent<E>) event).completed(future);
+        }
+        return future;
+    }
+
+    /**
+     * Called for an event which will not be delivered to one of the subscriptions it was dispatched to
+     */
+    static void skipped(Event<?> event) {
+        if (event instanceof TrackedEvent)
+            ((TrackedEvent<?>) event).completed();
+    }
+
+    private <E> Subscription<E> subscription(Topics matcher, Class<?> eventType, BatchSubscriber<E> subscriber, int batchSize, long maxLatency, TimeUnit unit) {
+        notNull(matcher, "TopicMatcher");
+        notNull(eventType, "Event type");
+        BatchingSubscriber<E> batching = new BatchingSubscriber<E>(subscriber, batchSize, maxLatency, unit, subscriberExecutor, errorHandler, subscriptionManager.getReferenceQueue());
+        Subscription<E> subscription = Subscription.create(matcher, eventType, batching, subscriptionManager.getReferenceQueue());
+        batching.setSubscription(subscription);
+        return subscription;
+    }
+
+    private static ErrorHandler tracking(final ErrorHandler errorHandler) {
+        return new ErrorHandler() {
+            @Override
+            public <E> void onError(Subscription<E> subscription, Event<E> event, Exception e) {
+                if (event instanceof TrackedEvent)
+                    ((TrackedEvent<E>) event).failed(subscription, e);
+                errorHandler.onError(subscription, event, e);
+            }
+        };
+    }
+
+    private static List<Event<Object>> accepted(Subscription<?> subscription, List<Event<Object>> events) {
+        List<Event<Object>> accepted = new ArrayList<Event<Object>>(events.size());
+        for (Event<Object> event : events)
+            if (subscription.getEventType().isAssignableFrom(event.getSource().getClass()))
+                accepted.add(event);
+        return accepted;
+    }
+
     private static <E> Event<E> event(final Topic topic, final E source) {
         notNull(topic, "Topic");
         notNull(source, "Source");
@@ -123,4 +438,71 @@ public class DefaultDispatcher implements Dispatcher {
         };
     }
 
+    private final class Batch implements SubscriptionBatch, Predicate<Subscription<?>> {
+        final List<Subscription<?>> added = new ArrayList<Subscription<?>>();
+        final List<Topics> removedMatchers = new ArrayList<Topics>();
+        final List<Subscriber<?>> removedSubscribers = new ArrayList<Subscriber<?>>();
+        boolean committed;
+
+        @Override
+        public <E> SubscriptionBatch subscribe(Topics matcher, Class<?> eventType, Subscriber<E> subscriber) {
+            notNull(matcher, "TopicMatcher");
+            notNull(eventType, "Event type");
+            notNull(subscriber, "Subscriber");
+            added.add(Subscription.create(matcher, eventType, subscriber, subscriptionManager.getReferenceQueue()));
+            return this;
+        }
+
+        @Override
+        public <E> SubscriptionBatch subscribeAsync(Topics matcher, Class<?> eventType, AsyncSubscriber<E> subscriber) {
+            notNull(matcher, "TopicMatcher");
+            notNull(eventType, "Event type");
+            notNull(subscriber, "Subscriber");
+            added.add(Subscription.create(matcher, eventType, new AsyncSubscriberAdapter<E>(subscriber, subscriptionManager.getReferenceQueue()), subscriptionManager.getReferenceQueue()));
+            return this;
+        }
+
+        @Override
+        public <E> SubscriptionBatch subscribe(Topics matcher, Class<?> eventType, BatchSubscriber<E> subscriber, int batchSize, long maxLatency, TimeUnit unit) {
+            added.add(subscription(matcher, eventType, subscriber, batchSize, maxLatency, unit));
+            return this;
+        }
+
+        @Override
+        public <E> SubscriptionBatch unsubscribe(Subscriber<E> subscriber) {
+            notNull(subscriber, "Subscriber");
+            removedMatchers.add(null);
+            removedSubscribers.add(subscriber);
+            return this;
+        }
+
+        @Override
+        public <E> SubscriptionBatch unsubscribe(Topics matcher, Subscriber<E> subscriber) {
+            notNull(subscriber, "Subscriber");
+            notNull(matcher, "TopicMatcher");
+            removedMatchers.add(matcher);
+            removedSubscribers.add(subscriber);
+            return this;
+        }
+
+        @Override
+        public List<SubscriptionHandle> commit() {
+            if (committed)
+                throw new IllegalStateException("Batch already committed");
+            committed = true;
+            return subscriptionManager.update(added, this);
+        }
+
+        @Override
+        public boolean apply(Subscription<?> subscription) {
+            Subscriber<?> subscriber = subscription.getSubscriber();
+            for (int i = 0, size = removedSubscribers.size(); i < size; i++) {
+                Topics matcher = removedMatchers.get(i);
+                if (removedSubscribers.get(i).equals(subscriber) && (matcher == null || matcher.equals(subscription.getTopicMatcher())))
+                    return true;
+            }
+            return false;
+        }
+    }
+
 }
\ No newline at end of file
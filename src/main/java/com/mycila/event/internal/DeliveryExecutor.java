@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) 2010 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.event.internal;
+
+import com.mycila.event.Event;
+import com.mycila.event.Subscription;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * An {@link Executor} which can also receive a subscriber call as-is, so that the dispatcher
+ * does not have to wrap it into a {@link Runnable} and the executor knows which subscription is called.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public abstract class DeliveryExecutor implements Executor {
+
+    abstract <E> void deliver(DefaultDispatcher dispatcher, Subscription<E> subscription, Event<E> event);
+
+    /**
+     * Delivers a batch of events to a subscription, which must receive them in order and one at a time. By default,
+     * each event is delivered on its own: executors which may run the calls of a subscription in parallel must
+     * override this method to hand over the whole batch as a single task.
+     */
+    <E> void deliverAll(DefaultDispatcher dispatcher, Subscription<E> subscription, List<Event<E>> events) {
+        for (Event<E> event : events)
+            deliver(dispatcher, subscription, event);
+    }
+
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2010 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.event.internal;
+
+import com.mycila.event.SubscriberExecutionException;
+import com.mycila.event.Topic;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Executors running their commands in the calling thread, possibly one thread at a time.
+ * <p>
+ * The dispatcher recognizes them and calls subscribers directly between {@link #enter()} and {@link #exit()}
+ * instead of wrapping each call into a {@link Runnable}.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public abstract class DirectExecutor extends PublishExecutor {
+
+    private DirectExecutor() {
+    }
+
+    abstract void enter();
+
+    abstract void exit();
+
+    @Override
+    public final void execute(Runnable command) {
+        enter();
+        try {
+            command.run();
+        } finally {
+            exit();
+        }
+    }
+
+    @Override
+    final <E> void publish(DefaultDispatcher dispatcher, Topic topic, E source) {
+        enter();
+        try {
+            dispatcher.dispatch(topic, source);
+        } finally {
+            exit();
+        }
+    }
+
+    public static DirectExecutor immediate() {
+        return IMMEDIATE;
+    }
+
+    public static DirectExecutor blocking() {
+        return new DirectExecutor() {
+            private final Lock lock = new ReentrantLock();
+
+            @Override
+            void enter() {
+                lock.lock();
+            }
+
+            @Override
+            void exit() {
+                lock.unlock();
+            }
+        };
+    }
+
+    public static DirectExecutor blocking(final long blockingTimeout, final TimeUnit unit) {
+        return new DirectExecutor() {
+            private final Lock lock = new ReentrantLock();
+
+            @Override
+            void enter() {
+                boolean acquired;
+                try {
+                    acquired = lock.tryLock(blockingTimeout, unit);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw SubscriberExecutionException.wrap(e);
+                }
+                if (!acquired)
+                    throw SubscriberExecutionException.wrap(new TimeoutException("Unable to acquire lock in " + blockingTimeout + " " + unit));
+            }
+
+            @Override
+            void exit() {
+                lock.unlock();
+            }
+        };
+    }
+
+    private static final DirectExecutor IMMEDIATE = new DirectExecutor() {
+        @Override
+        void enter() {
+        }
+
+        @Override
+        void exit() {
+        }
+    };
+
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2010 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.event.internal;
+
+import com.mycila.event.Event;
+import com.mycila.event.Topic;
+
+/**
+ * Reusable event handed to subscribers by a synchronous dispatcher created to reuse its events.
+ * <p>
+ * Each thread keeps a stack of holders, one per level of nested publishing (a subscriber publishing
+ * itself), so that steady-state publishing does not allocate any event. A holder is cleared as soon as
+ * all subscribers have been called: subscribers must not keep a reference to the event itself.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class EventHolder implements Event<Object> {
+
+    private static final ThreadLocal<EventHolder> FREE = new ThreadLocal<EventHolder>() {
+        @Override
+        protected EventHolder initialValue() {
+            return new EventHolder();
+        }
+    };
+
+    private EventHolder next;
+    private Topic topic;
+    private Object source;
+    private long timestamp;
+
+    private EventHolder() {
+    }
+
+    @SuppressWarnings({"unchecked"})
+    static <E> Event<E> acquire(Topic topic, E source) {
+        EventHolder holder = FREE.get();
+        holder.topic = topic;
+        holder.source = source;
+        holder.timestamp = System.nanoTime();
+        if (holder.next == null)
+            holder.next = new EventHolder();
+        FREE.set(holder.next);
+        return (Event<E>) (Event<?>) holder;
+    }
+
+    /**
+     * @return the event itself, or an immutable copy of it if it is a holder, for a subscriber keeping it
+     */
+    static <E> Event<E> retain(Event<E> event) {
+        return event instanceof EventHolder ?
+                new Retained<E>(event.getTopic(), event.getSource(), event.nanoTime()) :
+                event;
+    }
+
+    static void release(Event<?> event) {
+        EventHolder holder = (EventHolder) event;
+        holder.topic = null;
+        holder.source = null;
+        FREE.set(holder);
+    }
+
+    @Override
+    public Topic getTopic() {
+        return topic;
+    }
+
+    @Override
+    public Object getSource() {
+        return source;
+    }
+
+    @Override
+    public long nanoTime() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "Event{timestamp=" + timestamp + ",topic=" + topic + ",source=" + source + "}";
+    }
+
+    private static final class Retained<E> implements Event<E> {
+        private final Topic topic;
+        private final E source;
+        private final long timestamp;
+
+        Retained(Topic topic, E source, long timestamp) {
+            this.topic = topic;
+            this.source = source;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public Topic getTopic() {
+            return topic;
+        }
+
+        @Override
+        public E getSource() {
+            return source;
+        }
+
+        @Override
+        public long nanoTime() {
+            return timestamp;
+        }
+
+        @Override
+        public String toString() {
+            return "Event{timestamp=" + timestamp + ",topic=" + topic + ",source=" + source + "}";
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2010 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.event.internal;
+
+import com.mycila.event.Event;
+import com.mycila.event.Subscription;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import static com.mycila.event.internal.Ensure.notNull;
+
+/**
+ * Delivers an event to its subscriptions over a {@link ForkJoinPool}: the resolved subscription array is
+ * split in halves until a part has at most {@code threshold} subscriptions, each part being delivered
+ * sequentially by one task. Idle workers steal the other halves, so a topic with thousands of subscribers
+ * is spread over all the workers instead of being enqueued one call at a time.
+ * <p/>
+ * A fan-out up to the threshold is delivered directly by the dispatching thread. A batch published with
+ * {@code publishAll} is split by subscription: each subscription receives the whole batch from a single task.
+ * A failing subscriber never prevents the other subscriptions of a part from receiving the event, and a split
+ * fan-out is forked by the dispatching worker, so that its failures stay within the pool like any other task.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class ForkJoinFanOutExecutor extends DeliveryExecutor {
+
+    private final ForkJoinPool pool;
+    private final int threshold;
+
+    public ForkJoinFanOutExecutor(ForkJoinPool pool, int threshold) {
+        if (threshold < 1)
+            throw new IllegalArgumentException("Fan-out threshold must be positive: " + threshold);
+        this.pool = notNull(pool, "ForkJoinPool");
+        this.threshold = threshold;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        pool.execute(command);
+    }
+
+    @Override
+    <E> void deliver(final DefaultDispatcher dispatcher, final Subscription<E> subscription, final Event<E> event) {
+        pool.execute(new Runnable() {
+            public void run() {
+                dispatcher.deliver(subscription, event);
+            }
+        });
+    }
+
+    /**
+     * Hands over the batch as a single task, so that the subscription receives its events in order and one at a time
+     */
+    @Override
+    <E> void deliverAll(final DefaultDispatcher dispatcher, final Subscription<E> subscription, final List<Event<E>> events) {
+        pool.execute(new Runnable() {
+            public void run() {
+                dispatcher.deliverEach(subscription, events);
+            }
+        });
+    }
+
+    @SuppressWarnings({"unchecked"})
+    <E> void fanOut(DefaultDispatcher dispatcher, Subscription<?>[] subscriptions, Event<E> event) {
+        if (subscriptions.length <= threshold) {
+            dispatcher.deliverEach(subscriptions, 0, subscriptions.length, event);
+        } else {
+            FanOut task = new FanOut(dispatcher, subscriptions, (Event<Object>) event, 0, subscriptions.length);
+            if (ForkJoinTask.getPool() == pool)
+                task.fork();
+            else
+                pool.execute(task);
+        }
+    }
+
+    private final class FanOut extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final DefaultDispatcher dispatcher;
+        private final Subscription<?>[] subscriptions;
+        private final Event<Object> event;
+        private final int from;
+        private final int to;
+
+        FanOut(DefaultDispatcher dispatcher, Subscription<?>[] subscriptions, Event<Object> event, int from, int to) {
+            this.dispatcher = dispatcher;
+            this.subscriptions = subscriptions;
+            this.event = event;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= threshold) {
+                dispatcher.deliverEach(subscriptions, from, to, event);
+            } else {
+                // invokeAll() would cancel the second half when the first one fails
+                int middle = (from + to) >>> 1;
+                FanOut second = new FanOut(dispatcher, subscriptions, event, middle, to);
+                second.fork();
+                new FanOut(dispatcher, subscriptions, event, from, middle).compute();
+                second.join();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2010 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.event.internal;
+
+import com.google.common.collect.MapMaker;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.mycila.event.Event;
+import com.mycila.event.Subscription;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.mycila.event.internal.Ensure.notNull;
+
+/**
+ * Gives each subscription its own bounded FIFO mailbox, drained by a task which is only scheduled on
+ * the shared executor while the mailbox is not empty.
+ * <p>
+ * A subscription is thus never called by two threads at a time and receives its events in publish order,
+ * while different subscriptions are called in parallel. The next event for an
+ * {@link com.mycila.event.AsyncSubscriber} waits for the future of the previous one. A slow subscriber only fills
+ * its own mailbox: when full, the publisher waits for it to have room, unless the publisher is itself a subscriber
+ * called by a mailbox, in which case the event is rejected instead.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class MailboxExecutor extends DeliveryExecutor {
+
+    private static final int THROUGHPUT = 64;
+
+    // set in the threads draining any mailbox: two subscribers publishing to each other's full mailbox would
+    // otherwise wait for each other forever
+    private static final ThreadLocal<Boolean> DRAINER = new ThreadLocal<Boolean>();
+
+    private final ConcurrentMap<Subscription<?>, Mailbox> mailboxes = new MapMaker().weakKeys().makeMap();
+    private final Executor executor;
+    private final int capacity;
+
+    public MailboxExecutor(Executor executor, int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Mailbox capacity must be positive: " + capacity);
+        this.executor = notNull(executor, "Executor");
+        this.capacity = capacity;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        executor.execute(command);
+    }
+
+    @Override
+    <E> void deliver(DefaultDispatcher dispatcher, Subscription<E> subscription, Event<E> event) {
+        Mailbox mailbox = mailboxes.get(subscription);
+        if (mailbox == null) {
+            mailbox = new Mailbox(dispatcher, subscription);
+            Mailbox old = mailboxes.putIfAbsent(subscription, mailbox);
+            if (old != null) mailbox = old;
+        }
+        mailbox.post(event);
+    }
+
+    private final class Mailbox implements Runnable {
+        final BlockingQueue<Event<?>> events = new LinkedBlockingQueue<Event<?>>(capacity);
+        final AtomicBoolean scheduled = new AtomicBoolean(false);
+        final DefaultDispatcher dispatcher;
+        final WeakReference<Subscription<?>> subscription;
+
+        Mailbox(DefaultDispatcher dispatcher, Subscription<?> subscription) {
+            this.dispatcher = dispatcher;
+            this.subscription = new WeakReference<Subscription<?>>(subscription);
+        }
+
+        void post(Event<?> event) {
+            if (!events.offer(event)) {
+                if (DRAINER.get() != null)
+                    throw new RejectedExecutionException("Mailbox of " + subscription.get() + " is full and cannot be waited for by a subscriber");
+                try {
+                    events.put(event);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException(e);
+                }
+            }
+            schedule();
+        }
+
+        void schedule() {
+            if (!events.isEmpty() && scheduled.compareAndSet(false, true))
+                executor.execute(this);
+        }
+
+        @Override
+        @SuppressWarnings({"unchecked"})
+        public void run() {
+            boolean waiting = false;
+            Boolean outer = DRAINER.get();
+            DRAINER.set(Boolean.TRUE);
+            try {
+                Subscription<Object> s = (Subscription<Object>) subscription.get();
+                Event<Object> event;
+                if (s == null) {
+                    while ((event = (Event<Object>) events.poll()) != null)
+                        DefaultDispatcher.skipped(event);
+                    return;
+                }
+                for (int i = 0; i < THROUGHPUT && (event = (Event<Object>) events.poll()) != null; i++) {
+                    ListenableFuture<?> future = dispatcher.deliver(s, event);
+                    if (future != null && !future.isDone()) {
+                        // the next event waits for the asynchronous subscriber: still scheduled meanwhile
+                        future.addListener(this, executor);
+                        waiting = true;
+                        return;
+                    }
+                }
+            } finally {
+                DRAINER.set(outer);
+                if (!waiting) {
+                    scheduled.set(false);
+                    schedule();
+                }
+            }
+        }
+    }
+
+}
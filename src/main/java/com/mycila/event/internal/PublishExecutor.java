@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) 2010 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.event.internal;
+
+import com.mycila.event.Topic;
+
+import java.util.concurrent.Executor;
+
+/**
+ * An {@link Executor} which can also receive a publication as-is, so that the dispatcher
+ * does not have to wrap it into a {@link Runnable} before handing it over.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public abstract class PublishExecutor implements Executor {
+
+    abstract <E> void publish(DefaultDispatcher dispatcher, Topic topic, E source);
+
+    /**
+     * Hands over a whole batch as a single command, so that it keeps its place among the other publications
+     */
+    void publishAll(final DefaultDispatcher dispatcher, final Topic topic, final Object[] sources) {
+        execute(new Runnable() {
+            public void run() {
+                dispatcher.dispatchAll(topic, sources);
+            }
+        });
+    }
+
+    /**
+     * Hands over a tracked publication as a single command, so that it keeps its place among the other publications
+     */
+    void publishTracked(DefaultDispatcher dispatcher, TrackedEvent<?> event) {
+        execute(event.publication(dispatcher));
+    }
+
+}
@@ -15,8 +15,8 @@
  */
 package com.mycila.event.internal;
 
+import com.mycila.event.BatchPublisher;
 import com.mycila.event.MycilaEvent;
-import com.mycila.event.Publisher;
 import com.mycila.event.Requestor;
 import com.mycila.event.Topic;
 import com.mycila.event.annotation.Group;
@@ -41,7 +41,7 @@ import static com.mycila.event.internal.Reflect.getTargetClass;
  * @author Mathieu Carbou (mathieu.carbou@gmail.com)
  */
 public final class PublisherInterceptor implements MethodInterceptor {
-    private final Map<Signature, Publisher> publisherCache = new HashMap<Signature, Publisher>();
+    private final Map<Signature, BatchPublisher> publisherCache = new HashMap<Signature, BatchPublisher>();
     private final Map<Signature, TimedRequestor> requestorCache = new HashMap<Signature, TimedRequestor>();
     private final Object delegate;
 
@@ -51,7 +51,7 @@ public final class PublisherInterceptor implements MethodInterceptor {
         for (Method method : filter(allMethods, annotatedBy(Publish.class))) {
             hasSomeArgs(method);
             Publish annotation = method.getAnnotation(Publish.class);
-            Publisher publisher = mycilaEvent.createPublisher(Topic.topics(annotation.topics()));
+            BatchPublisher publisher = (BatchPublisher) mycilaEvent.createPublisher(Topic.topics(annotation.topics()));
             publisherCache.put(new Signature(method), publisher);
         }
         // find requestors
@@ -70,7 +70,7 @@ public final class PublisherInterceptor implements MethodInterceptor {
     @SuppressWarnings({"unchecked"})
     public Object invoke(MethodInvocation invocation) throws Throwable {
         Signature methodSignature = new Signature(invocation.getMethod());
-        Publisher publisher = publisherCache.get(methodSignature);
+        BatchPublisher publisher = publisherCache.get(methodSignature);
         if (publisher != null)
             return handlePublishing(publisher, invocation);
         TimedRequestor r = requestorCache.get(methodSignature);
@@ -88,7 +88,7 @@ public final class PublisherInterceptor implements MethodInterceptor {
                 invocation.getMethod().invoke(delegate, invocation.getArguments());
     }
 
-    private static Object handlePublishing(Publisher publisher, MethodInvocation invocation) {
+    private static Object handlePublishing(BatchPublisher publisher, MethodInvocation invocation) {
         boolean group = invocation.getMethod().isAnnotationPresent(Group.class);
         if (group) {
             publisher.publish(invocation.getArguments());
@@ -97,12 +97,10 @@ public final class PublisherInterceptor implements MethodInterceptor {
             for (Object arg : invocation.getArguments()) {
                 if (!requiresSplit)
                     publisher.publish(arg);
-                else if (arg.getClass().isArray())
-                    for (Object event : (Object[]) arg)
-                        publisher.publish(event);
+                else if (arg instanceof Object[])
+                    publisher.publishAll((Object[]) arg);
                 else if (arg instanceof Iterable)
-                    for (Object event : (Iterable) arg)
-                        publisher.publish(event);
+                    publisher.publishAll((Iterable<?>) arg);
                 else
                     publisher.publish(arg);
             }
@@ -27,8 +27,10 @@ import java.lang.reflect.Member;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 import static com.google.common.collect.Iterables.concat;
 import static com.google.common.collect.Iterables.filter;
@@ -103,6 +105,13 @@ public final class Reflect {
         return fields;
     }
 
+    /**
+     * @return the class, its superclasses and all the interfaces they implement, computed once per class
+     */
+    public static Class<?>[] getSupertypes(Class<?> type) {
+        return SUPERTYPES_CACHE.get(type);
+    }
+
     private Reflect() {
     }
 
@@ -127,6 +136,23 @@ public final class Reflect {
         }
     };
 
+    private static final ClassValue<Class<?>[]> SUPERTYPES_CACHE = new ClassValue<Class<?>[]>() {
+        @Override
+        protected Class<?>[] computeValue(Class<?> type) {
+            Set<Class<?>> supertypes = new LinkedHashSet<Class<?>>();
+            for (Class<?> c = type; c != null; c = c.getSuperclass())
+                addInterfaces(supertypes, c);
+            supertypes.add(Object.class);
+            return supertypes.toArray(new Class<?>[supertypes.size()]);
+        }
+
+        private void addInterfaces(Set<Class<?>> supertypes, Class<?> type) {
+            if (supertypes.add(type))
+                for (Class<?> i : type.getInterfaces())
+                    addInterfaces(supertypes, i);
+        }
+    };
+
     private static final List<Signature> OBJECT_METHODS = Lists.newLinkedList(transform(asList(Object.class.getDeclaredMethods()), TO_SIGNATURE));
 
     private static final WeakCache<Class<?>, Iterable<Signature>> METHOD_CACHE = new WeakCache<Class<?>, Iterable<Signature>>(new WeakCache.Provider<Class<?>, Iterable<Signature>>() {
@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2010 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.event.internal;
+
+import com.mycila.event.Topic;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.mycila.event.internal.Ensure.notNull;
+
+/**
+ * Bounded executor backed by a power-of-two ring of preallocated slots, drained by a single consumer thread.
+ * <p>
+ * Publishers claim a sequence with a CAS on the claim cursor, fill the slot in place and commit it by
+ * writing the slot sequence. The consumer advances its own cursor, which gates the publishers when the
+ * ring is full. Nothing is allocated per publication and no lock is taken.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class RingBufferExecutor extends PublishExecutor {
+
+    private static final int SPINS = 64;
+
+    // set in the consumer threads of all the rings: two consumers publishing to each other's full ring would
+    // otherwise wait for each other forever
+    private static final ThreadLocal<Boolean> CONSUMER = new ThreadLocal<Boolean>();
+
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong(-1);
+    private final AtomicLong consumed = new AtomicLong(-1);
+    private final Thread consumer;
+
+    private volatile boolean waiting;
+    private volatile boolean running = true;
+
+    public RingBufferExecutor(int bufferSize, ThreadFactory threadFactory) {
+        if (bufferSize < 1 || Integer.bitCount(bufferSize) != 1)
+            throw new IllegalArgumentException("Ring buffer size must be a power of two: " + bufferSize);
+        notNull(threadFactory, "Thread factory");
+        this.slots = new Slot[bufferSize];
+        for (int i = 0; i < bufferSize; i++)
+            slots[i] = new Slot();
+        this.mask = bufferSize - 1;
+        this.consumer = threadFactory.newThread(new Runnable() {
+            public void run() {
+                consume();
+            }
+        });
+        consumer.start();
+    }
+
+    public int getBufferSize() {
+        return slots.length;
+    }
+
+    public long getBacklog() {
+        return claimed.get() - consumed.get();
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        notNull(command, "Runnable");
+        long sequence = claim();
+        if (sequence < 0)
+            command.run();
+        else {
+            Slot slot = slots[(int) sequence & mask];
+            slot.command = command;
+            commit(slot, sequence);
+        }
+    }
+
+    @Override
+    <E> void publish(DefaultDispatcher dispatcher, Topic topic, E source) {
+        long sequence = claim();
+        if (sequence < 0)
+            dispatcher.dispatch(topic, source);
+        else {
+            Slot slot = slots[(int) sequence & mask];
+            slot.dispatcher = dispatcher;
+            slot.topic = topic;
+            slot.source = source;
+            commit(slot, sequence);
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(consumer);
+    }
+
+    /**
+     * @return the claimed sequence, or -1 if the ring is full and the caller is the consumer thread of a ring
+     *         (i.e. a subscriber publishing), in which case the caller must run the work inline
+     */
+    private long claim() {
+        int spins = 0;
+        while (true) {
+            if (!running)
+                throw new RejectedExecutionException("Ring buffer has been shut down");
+            long current = claimed.get();
+            long next = current + 1;
+            if (next - slots.length > consumed.get()) {
+                if (CONSUMER.get() != null)
+                    return -1;
+                spins = backoff(spins);
+            } else if (claimed.compareAndSet(current, next))
+                return next;
+        }
+    }
+
+    private void commit(Slot slot, long sequence) {
+        slot.sequence = sequence;
+        if (waiting)
+            LockSupport.unpark(consumer);
+    }
+
+    private void consume() {
+        CONSUMER.set(Boolean.TRUE);
+        long next = consumed.get() + 1;
+        int spins = 0;
+        while (true) {
+            Slot slot = slots[(int) next & mask];
+            if (slot.sequence == next) {
+                Runnable command = slot.command;
+                DefaultDispatcher dispatcher = slot.dispatcher;
+                Topic topic = slot.topic;
+                Object source = slot.source;
+                slot.clear();
+                consumed.lazySet(next++);
+                spins = 0;
+                try {
+                    if (command != null)
+                        command.run();
+                    else
+                        dispatcher.dispatch(topic, source);
+                } catch (Throwable t) {
+                    Thread thread = Thread.currentThread();
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+                }
+            } else if (!running && claimed.get() < next)
+                return;
+            else if (spins < SPINS) {
+                spins++;
+                Thread.yield();
+            } else {
+                waiting = true;
+                if (slot.sequence != next && running)
+                    LockSupport.park(this);
+                waiting = false;
+            }
+        }
+    }
+
+    private static int backoff(int spins) {
+        if (spins < SPINS)
+            Thread.yield();
+        else
+            LockSupport.parkNanos(1000L);
+        return spins + 1;
+    }
+
+    private static final class Slot {
+        volatile long sequence = -1;
+        Runnable command;
+        DefaultDispatcher dispatcher;
+        Topic topic;
+        Object source;
+
+        void clear() {
+            command = null;
+            dispatcher = null;
+            topic = null;
+            source = null;
+        }
+    }
+}
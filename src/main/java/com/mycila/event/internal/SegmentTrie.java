@@ -0,0 +1,200 @@
+/**
+ * Copyright (C) 2010 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.event.internal;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A tree of topic segments. Values are either indexed by pattern ({@code *}, {@code ?} and {@code **} segments
+ * become wildcard branches) and looked up with a topic, or indexed by topic and looked up with a pattern.
+ * <p/>
+ * Lookups return candidates only: they never miss a match but may return values the real matcher would
+ * refuse (i.e. leading or trailing separators are not indexed), so callers must check them. Not thread-safe.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class SegmentTrie<V> {
+
+    private static final String ANY_PATH = "**";
+
+    private final Node<V> root = new Node<V>();
+
+    void addPattern(List<String> pattern, V value) {
+        Node<V> node = root;
+        for (String segment : pattern)
+            node = node.child(segment, true);
+        node.values().add(value);
+    }
+
+    void addPath(List<String> path, V value) {
+        Node<V> node = root;
+        for (String segment : path)
+            node = node.child(segment, false);
+        node.values().add(value);
+    }
+
+    void removePattern(List<String> pattern, V value) {
+        remove(root, pattern, 0, value, true);
+    }
+
+    void removePath(List<String> path, V value) {
+        remove(root, path, 0, value, false);
+    }
+
+    /**
+     * Collects the values indexed by a pattern which may match the given topic segments
+     */
+    void matchPath(List<String> path, Collection<? super V> into) {
+        matchPath(root, path, 0, into);
+    }
+
+    /**
+     * Collects the values indexed by a topic which may be matched by the given pattern segments
+     */
+    void matchPattern(List<String> pattern, Collection<? super V> into) {
+        matchPattern(root, pattern, 0, into);
+    }
+
+    private static <V> void matchPath(Node<V> node, List<String> path, int index, Collection<? super V> into) {
+        if (index == path.size()) {
+            if (node.values != null)
+                into.addAll(node.values);
+            // a trailing '*' also matches a topic ending with a separator, and '**' matches nothing
+            if (node.star != null)
+                matchPath(node.star, path, index, into);
+            if (node.anyPath != null)
+                matchPath(node.anyPath, path, index, into);
+            return;
+        }
+        if (node.children != null) {
+            Node<V> child = node.children.get(path.get(index));
+            if (child != null)
+                matchPath(child, path, index + 1, into);
+        }
+        if (node.star != null)
+            matchPath(node.star, path, index + 1, into);
+        if (node.anyPath != null)
+            for (int i = index; i <= path.size(); i++)
+                matchPath(node.anyPath, path, i, into);
+    }
+
+    private static <V> void matchPattern(Node<V> node, List<String> pattern, int index, Collection<? super V> into) {
+        if (index == pattern.size()) {
+            if (node.values != null)
+                into.addAll(node.values);
+            return;
+        }
+        String segment = pattern.get(index);
+        if (segment.equals(ANY_PATH)) {
+            collectAll(node, into);
+        } else if (isWildcard(segment)) {
+            if (node.values != null)
+                into.addAll(node.values);
+            if (node.children != null)
+                for (Node<V> child : node.children.values())
+                    matchPattern(child, pattern, index + 1, into);
+        } else if (node.children != null) {
+            Node<V> child = node.children.get(segment);
+            if (child != null)
+                matchPattern(child, pattern, index + 1, into);
+        }
+    }
+
+    private static <V> void collectAll(Node<V> node, Collection<? super V> into) {
+        if (node.values != null)
+            into.addAll(node.values);
+        if (node.children != null)
+            for (Node<V> child : node.children.values())
+                collectAll(child, into);
+    }
+
+    private static <V> boolean remove(Node<V> node, List<String> segments, int index, V value, boolean pattern) {
+        if (index == segments.size()) {
+            if (node.values != null && node.values.remove(value) && node.values.isEmpty())
+                node.values = null;
+        } else {
+            String segment = segments.get(index);
+            Node<V> child = node.find(segment, pattern);
+            if (child != null && remove(child, segments, index + 1, value, pattern))
+                node.prune(segment, pattern);
+        }
+        return node.isEmpty();
+    }
+
+    private static boolean isWildcard(String segment) {
+        return segment.indexOf('*') >= 0 || segment.indexOf('?') >= 0;
+    }
+
+    private static final class Node<V> {
+        Map<String, Node<V>> children;
+        Node<V> star;
+        Node<V> anyPath;
+        Set<V> values;
+
+        Set<V> values() {
+            if (values == null)
+                values = new HashSet<V>(2);
+            return values;
+        }
+
+        Node<V> find(String segment, boolean pattern) {
+            if (pattern && segment.equals(ANY_PATH))
+                return anyPath;
+            if (pattern && isWildcard(segment))
+                return star;
+            return children == null ? null : children.get(segment);
+        }
+
+        Node<V> child(String segment, boolean pattern) {
+            Node<V> child = find(segment, pattern);
+            if (child == null) {
+                child = new Node<V>();
+                if (pattern && segment.equals(ANY_PATH))
+                    anyPath = child;
+                else if (pattern && isWildcard(segment))
+                    star = child;
+                else {
+                    if (children == null)
+                        children = new HashMap<String, Node<V>>(4);
+                    children.put(segment, child);
+                }
+            }
+            return child;
+        }
+
+        void prune(String segment, boolean pattern) {
+            if (pattern && segment.equals(ANY_PATH))
+                anyPath = null;
+            else if (pattern && isWildcard(segment))
+                star = null;
+            else if (children != null) {
+                children.remove(segment);
+                if (children.isEmpty())
+                    children = null;
+            }
+        }
+
+        boolean isEmpty() {
+            return values == null && children == null && star == null && anyPath == null;
+        }
+    }
+
+}
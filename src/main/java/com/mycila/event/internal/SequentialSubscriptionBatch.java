@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2010 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.event.internal;
+
+import com.mycila.event.AsyncSubscriber;
+import com.mycila.event.BatchSubscriber;
+import com.mycila.event.Dispatcher;
+import com.mycila.event.Subscriber;
+import com.mycila.event.Subscription;
+import com.mycila.event.SubscriptionBatch;
+import com.mycila.event.SubscriptionHandle;
+import com.mycila.event.Topics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.mycila.event.internal.Ensure.notNull;
+
+/**
+ * Batch of subscription changes for a {@link Dispatcher} which does not provide its own: the changes are applied
+ * one after the other when committed, so a publisher can see some of them only. Asynchronous and batch subscribers
+ * are not supported, and a returned handle is cancelled by unsubscribing its subscriber from its topics.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class SequentialSubscriptionBatch implements SubscriptionBatch {
+
+    private final Dispatcher dispatcher;
+    private final List<Topics> addedMatchers = new ArrayList<Topics>();
+    private final List<Class<?>> addedTypes = new ArrayList<Class<?>>();
+    private final List<Subscriber<?>> addedSubscribers = new ArrayList<Subscriber<?>>();
+    private final List<Topics> removedMatchers = new ArrayList<Topics>();
+    private final List<Subscriber<?>> removedSubscribers = new ArrayList<Subscriber<?>>();
+    private boolean committed;
+
+    public SequentialSubscriptionBatch(Dispatcher dispatcher) {
+        this.dispatcher = notNull(dispatcher, "Dispatcher");
+    }
+
+    @Override
+    public <E> SubscriptionBatch subscribe(Topics matcher, Class<?> eventType, Subscriber<E> subscriber) {
+        addedMatchers.add(notNull(matcher, "TopicMatcher"));
+        addedTypes.add(notNull(eventType, "Event type"));
+        addedSubscribers.add(notNull(subscriber, "Subscriber"));
+        return this;
+    }
+
+    @Override
+    public <E> SubscriptionBatch subscribeAsync(Topics matcher, Class<?> eventType, AsyncSubscriber<E> subscriber) {
+        throw new UnsupportedOperationException("Asynchronous subscribers are not supported by " + dispatcher);
+    }
+
+    @Override
+    public <E> SubscriptionBatch subscribe(Topics matcher, Class<?> eventType, BatchSubscriber<E> subscriber, int batchSize, long maxLatency, TimeUnit unit) {
+        throw new UnsupportedOperationException("Batch subscribers are not supported by " + dispatcher);
+    }
+
+    @Override
+    public <E> SubscriptionBatch unsubscribe(Subscriber<E> subscriber) {
+        removedSubscribers.add(notNull(subscriber, "Subscriber"));
+        removedMatchers.add(null);
+        return this;
+    }
+
+    @Override
+    public <E> SubscriptionBatch unsubscribe(Topics matcher, Subscriber<E> subscriber) {
+        removedSubscribers.add(notNull(subscriber, "Subscriber"));
+        removedMatchers.add(notNull(matcher, "TopicMatcher"));
+        return this;
+    }
+
+    @Override
+    @SuppressWarnings({"unchecked"})
+    public List<SubscriptionHandle> commit() {
+        if (committed)
+            throw new IllegalStateException("Batch already committed");
+        committed = true;
+        for (int i = 0, size = removedSubscribers.size(); i < size; i++) {
+            if (removedMatchers.get(i) == null)
+                dispatcher.unsubscribe(removedSubscribers.get(i));
+            else
+                dispatcher.unsubscribe(removedMatchers.get(i), removedSubscribers.get(i));
+        }
+        List<SubscriptionHandle> handles = new ArrayList<SubscriptionHandle>(addedSubscribers.size());
+        for (int i = 0, size = addedSubscribers.size(); i < size; i++) {
+            Subscription<Object> subscription = Subscription.create(addedMatchers.get(i), addedTypes.get(i), (Subscriber<Object>) addedSubscribers.get(i));
+            dispatcher.subscribe(addedMatchers.get(i), addedTypes.get(i), (Subscriber<Object>) addedSubscribers.get(i));
+            handles.add(new Handle(dispatcher, subscription));
+        }
+        return handles;
+    }
+
+    private static final class Handle implements SubscriptionHandle {
+        private final Dispatcher dispatcher;
+        private final Subscription<Object> subscription;
+
+        Handle(Dispatcher dispatcher, Subscription<Object> subscription) {
+            this.dispatcher = dispatcher;
+            this.subscription = subscription;
+        }
+
+        @Override
+        public Subscription<?> getSubscription() {
+            return subscription;
+        }
+
+        @Override
+        public synchronized void cancel() {
+            Subscriber<Object> subscriber = subscription.getSubscriber();
+            subscription.cancel();
+            if (subscriber != null)
+                dispatcher.unsubscribe(subscription.getTopicMatcher(), subscriber);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return subscription.isCancelled();
+        }
+    }
+
+}
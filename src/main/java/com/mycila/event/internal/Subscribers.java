@@ -15,6 +15,9 @@
  */
 package com.mycila.event.internal;
 
+import com.google.common.util.concurrent.ListenableFuture;
+import com.mycila.event.AsyncSubscriber;
+import com.mycila.event.BatchSubscriber;
 import com.mycila.event.Event;
 import com.mycila.event.EventRequest;
 import com.mycila.event.Reachability;
@@ -25,6 +28,10 @@ import com.mycila.event.annotation.Reference;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
 
 import static com.mycila.event.internal.Ensure.hasSomeArgs;
 import static com.mycila.event.internal.Ensure.notNull;
@@ -41,6 +48,20 @@ public final class Subscribers {
         return new MethodSubscriber(instance, method);
     }
 
+    /**
+     * @param method a method returning a {@link ListenableFuture} completing once the event is processed
+     */
+    public static AsyncSubscriber<?> createAsyncSubscriber(Object instance, Method method) {
+        return new MethodAsyncSubscriber(instance, method);
+    }
+
+    /**
+     * @param method a method taking a {@code List} of events ({@code List<Event<E>>}) or of event sources
+     */
+    public static BatchSubscriber<?> createBatchSubscriber(Object instance, Method method) {
+        return new MethodBatchSubscriber(instance, method);
+    }
+
     public static Subscriber<? extends EventRequest<?>> createResponder(Object instance, Method method) {
         return new MethodResponder(instance, method);
     }
@@ -68,23 +89,79 @@ public final class Subscribers {
         }
     }
 
-    private static final class MethodSubscriber extends ReferencableMethod implements Subscriber<Object> {
-        MethodSubscriber(Object target, Method method) {
+    private static class EventMethod extends ReferencableMethod {
+        EventMethod(Object target, Method method) {
             super(target, method);
             hasSomeArgs(method);
         }
 
+        final Object invoke(Event<Object> event) throws Exception {
+            try {
+                if (argTypes.length == 1 && argTypes[0].isAssignableFrom(Event.class))
+                    return invoker.invoke(target, event);
+                Object o = event.getSource();
+                if (o.getClass().isArray())
+                    return invoker.invoke(target, (Object[]) o);
+                return invoker.invoke(target, o);
+            } catch (InvocationTargetException e) {
+                if (e.getTargetException() instanceof Exception)
+                    throw (Exception) e.getTargetException();
+                throw SubscriberExecutionException.wrap(e.getTargetException());
+            }
+        }
+    }
+
+    private static final class MethodSubscriber extends EventMethod implements Subscriber<Object> {
+        MethodSubscriber(Object target, Method method) {
+            super(target, method);
+        }
+
         @Override
         public void onEvent(Event<Object> event) throws Exception {
+            invoke(event);
+        }
+    }
+
+    private static final class MethodAsyncSubscriber extends EventMethod implements AsyncSubscriber<Object> {
+        MethodAsyncSubscriber(Object target, Method method) {
+            super(target, method);
+            if (!ListenableFuture.class.isAssignableFrom(method.getReturnType()))
+                throw new IllegalArgumentException("Method " + method + " is not valid: must return a ListenableFuture");
+        }
+
+        @Override
+        public ListenableFuture<?> onEvent(Event<Object> event) throws Exception {
+            return (ListenableFuture<?>) invoke(event);
+        }
+    }
+
+    private static final class MethodBatchSubscriber extends ReferencableMethod implements BatchSubscriber<Object> {
+        private final boolean events;
+
+        MethodBatchSubscriber(Object target, Method method) {
+            super(target, method);
+            if (argTypes.length != 1 || !argTypes[0].isAssignableFrom(List.class))
+                throw new IllegalArgumentException("Method " + method + " is not valid: must have a single List parameter to receive batches of events");
+            Type type = method.getGenericParameterTypes()[0];
+            if (type instanceof ParameterizedType) {
+                Type element = ((ParameterizedType) type).getActualTypeArguments()[0];
+                if (element instanceof ParameterizedType)
+                    element = ((ParameterizedType) element).getRawType();
+                events = element == Event.class;
+            } else
+                events = false;
+        }
+
+        @Override
+        public void onEvents(List<Event<Object>> batch) throws Exception {
             try {
-                if (argTypes.length == 1 && argTypes[0].isAssignableFrom(Event.class))
-                    invoker.invoke(target, event);
+                if (events)
+                    invoker.invoke(target, batch);
                 else {
-                    Object o = event.getSource();
-                    if (o.getClass().isArray())
-                        invoker.invoke(target, (Object[]) o);
-                    else
-                        invoker.invoke(target, o);
+                    List<Object> sources = new ArrayList<Object>(batch.size());
+                    for (Event<Object> event : batch)
+                        sources.add(event.getSource());
+                    invoker.invoke(target, sources);
                 }
             } catch (InvocationTargetException e) {
                 if (e.getTargetException() instanceof Exception)
@@ -15,61 +15,166 @@
  */
 package com.mycila.event.internal;
 
-import com.google.common.base.Function;
-import com.google.common.base.Predicate;
-import com.mycila.event.Ref;
 import com.mycila.event.Subscription;
 
-import java.util.Iterator;
-import java.util.concurrent.CopyOnWriteArrayList;
-
-import static com.google.common.collect.Iterators.filter;
-import static com.google.common.collect.Iterators.transform;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
+ * Copy-on-write list of subscriptions. Publishers walk {@link #forType(Class)}, the subscriptions accepting an
+ * event type, which is computed once per event class and snapshot: any change to the list starts a new snapshot
+ * with an empty cache. Subscriptions whose subscriber has been collected are skipped by publishers and only
+ * removed by {@link #purge()}.
+ * <p/>
+ * A snapshot groups its subscriptions by event type, so that the subscriptions accepting an event class are found
+ * by looking up its supertypes (see {@link Reflect#getSupertypes(Class)}) instead of testing each subscription.
+ * The first event class published on a snapshot is also kept aside and checked by identity before the cache.
+ *
  * @author Mathieu Carbou (mathieu.carbou@gmail.com)
  */
-final class SubscriptionList implements Iterable<Subscription<?>> {
+final class SubscriptionList {
+
+    private static final Subscription<?>[] EMPTY = new Subscription<?>[0];
+
+    private volatile Snapshot snapshot = new Snapshot(EMPTY);
+
+    synchronized void add(Subscription<?> subscription) {
+        Subscription<?>[] current = snapshot.subscriptions;
+        Subscription<?>[] copy = Arrays.copyOf(current, current.length + 1);
+        copy[current.length] = subscription;
+        snapshot = new Snapshot(copy);
+    }
+
+    boolean isEmpty() {
+        return snapshot.subscriptions.length == 0;
+    }
+
+    int size() {
+        return snapshot.subscriptions.length;
+    }
 
-    private final CopyOnWriteArrayList<Ref<? extends Subscription<?>>> subscriptions = new CopyOnWriteArrayList<Ref<? extends Subscription<?>>>();
+    /**
+     * @return the current subscriptions, to be walked by index. Never modify it.
+     */
+    Subscription<?>[] snapshot() {
+        return snapshot.subscriptions;
+    }
 
-    public boolean add(Subscription<?> subscription) {
-        Ref<? extends Subscription<?>> ref = subscription.getReachability().wrap(subscription);
-        return subscriptions.add(ref);
+    /**
+     * @return the current subscriptions accepting events of the given class, to be walked by index. Never modify it.
+     */
+    Subscription<?>[] forType(Class<?> eventType) {
+        Snapshot current = snapshot;
+        TypeEntry first = current.first;
+        if (first != null && first.eventType == eventType)
+            return first.subscriptions;
+        Subscription<?>[] subscriptions = current.byType.get(eventType);
+        if (subscriptions == null) {
+            subscriptions = current.filter(eventType);
+            current.byType.putIfAbsent(eventType, subscriptions);
+        }
+        if (first == null)
+            current.first = new TypeEntry(eventType, subscriptions);
+        return subscriptions;
     }
 
-    public boolean isEmpty() {
-        return subscriptions.isEmpty();
+    /**
+     * Removes the subscriptions whose subscriber has been garbage collected or cancelled and appends the given ones,
+     * with a single copy
+     */
+    synchronized void update(List<Subscription<?>> added) {
+        Subscription<?>[] current = snapshot.subscriptions;
+        Subscription<?>[] copy = new Subscription<?>[current.length + added.size()];
+        int size = 0;
+        for (Subscription<?> s : current)
+            if (s.getSubscriber() != null)
+                copy[size++] = s;
+        for (Subscription<?> s : added)
+            copy[size++] = s;
+        snapshot = new Snapshot(size == copy.length ? copy : Arrays.copyOf(copy, size));
     }
 
-    public int size() {
-        return subscriptions.size();
+    void remove(Subscription<?> subscription) {
+        removeIf(subscription);
     }
 
-    public Iterator<Subscription<?>> iterator() {
-        return filter(transform(subscriptions.iterator(), TRANSFORMER), FILTER);
+    /**
+     * Removes the subscriptions whose subscriber has been garbage collected
+     */
+    void purge() {
+        removeIf(null);
     }
 
-    public void remove(Subscription<?> subscription) {
-        for (Ref<? extends Subscription<?>> ref : subscriptions)
-            if (subscription.equals(ref.get()))
-                subscriptions.remove(ref);
+    private synchronized void removeIf(Subscription<?> subscription) {
+        Subscription<?>[] current = snapshot.subscriptions;
+        Subscription<?>[] copy = Arrays.copyOf(current, current.length);
+        int size = 0;
+        for (Subscription<?> s : current)
+            if (s != subscription && s.getSubscriber() != null)
+                copy[size++] = s;
+        if (size < current.length)
+            snapshot = new Snapshot(Arrays.copyOf(copy, size));
     }
 
-    private static final Predicate<Subscription<?>> FILTER = new Predicate<Subscription<?>>() {
-        @Override
-        public boolean apply(Subscription<?> input) {
-            return input != null;
+    private static final class Snapshot {
+        final Subscription<?>[] subscriptions;
+        final ConcurrentMap<Class<?>, Subscription<?>[]> byType = new ConcurrentHashMap<Class<?>, Subscription<?>[]>(4);
+        // racy but immutable, so safely published
+        TypeEntry first;
+        // guarded by this
+        private Map<Class<?>, BitSet> positions;
+
+        Snapshot(Subscription<?>[] subscriptions) {
+            this.subscriptions = subscriptions;
+        }
+
+        Subscription<?>[] filter(Class<?> eventType) {
+            if (eventType.isArray()) {
+                // array types are assignable to other array types, not only to their supertypes
+                Subscription<?>[] filtered = new Subscription<?>[subscriptions.length];
+                int size = 0;
+                for (Subscription<?> subscription : subscriptions)
+                    if (subscription.getEventType().isAssignableFrom(eventType))
+                        filtered[size++] = subscription;
+                return size == filtered.length ? filtered : Arrays.copyOf(filtered, size);
+            }
+            BitSet matching = new BitSet(subscriptions.length);
+            synchronized (this) {
+                if (positions == null) {
+                    positions = new HashMap<Class<?>, BitSet>();
+                    for (int i = 0; i < subscriptions.length; i++) {
+                        BitSet bucket = positions.get(subscriptions[i].getEventType());
+                        if (bucket == null)
+                            positions.put(subscriptions[i].getEventType(), bucket = new BitSet(subscriptions.length));
+                        bucket.set(i);
+                    }
+                }
+                for (Class<?> supertype : Reflect.getSupertypes(eventType)) {
+                    BitSet bucket = positions.get(supertype);
+                    if (bucket != null)
+                        matching.or(bucket);
+                }
+            }
+            Subscription<?>[] filtered = new Subscription<?>[matching.cardinality()];
+            for (int i = matching.nextSetBit(0), size = 0; i >= 0; i = matching.nextSetBit(i + 1))
+                filtered[size++] = subscriptions[i];
+            return filtered;
         }
-    };
-
-    private final Function<Ref<? extends Subscription<?>>, Subscription<?>> TRANSFORMER = new Function<Ref<? extends Subscription<?>>, Subscription<?>>() {
-        @Override
-        public Subscription<?> apply(Ref<? extends Subscription<?>> ref) {
-            Subscription<?> next = ref.get();
-            if (next == null)
-                subscriptions.remove(ref);
-            return next;
+    }
+
+    private static final class TypeEntry {
+        final Class<?> eventType;
+        final Subscription<?>[] subscriptions;
+
+        TypeEntry(Class<?> eventType, Subscription<?>[] subscriptions) {
+            this.eventType = eventType;
+            this.subscriptions = subscriptions;
         }
-    };
+    }
+
 }
@@ -16,72 +16,396 @@
 package com.mycila.event.internal;
 
 import com.google.common.base.Predicate;
-import com.mycila.event.Event;
+import com.google.common.cache.CacheStats;
 import com.mycila.event.Subscriber;
 import com.mycila.event.Subscription;
+import com.mycila.event.SubscriptionHandle;
 import com.mycila.event.Topic;
 import com.mycila.event.Topics;
 
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-
-import static com.google.common.collect.Iterators.filter;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
+ * Resolves the subscriptions of a topic once and caches them. Subscriptions are indexed by the exact topics and
+ * patterns their matcher is the union of (see {@link Topics#decompose(java.util.Collection)}), so that resolving
+ * a topic only walks its segments. Matchers which cannot be decomposed are kept aside and tested one by one.
+ * <p/>
+ * Cached topics are indexed the same way, so that a new subscription only updates the topics it may match.
+ * The cache is bounded: when full, the least recently published topics are evicted with a CLOCK (second chance)
+ * policy, which only costs a flag write on the publishing path. Cached topics are stored in an array indexed by
+ * {@link Topic#getId()}, so that finding the subscriptions of a topic is an array load and an identity check.
+ * <p/>
+ * Weak subscribers are registered with a reference queue. Publishers skip the collected ones; the queue is
+ * drained the next time subscriptions change or a topic is resolved, and the collected subscriptions are then
+ * removed from the index and from all the cached lists in bulk.
+ * <p/>
+ * Each subscription is held by an {@link Entry}, which is also its {@link SubscriptionHandle}. An entry remembers
+ * the cached lists it was added to, so cancelling it never has to match its topics again.
+ *
  * @author Mathieu Carbou (mathieu.carbou@gmail.com)
  */
 final class SubscriptionManager {
 
-    private final SubscriptionList subscriptions = new SubscriptionList();
-    private final ConcurrentHashMap<Topic, SubscriptionList> mappedSubscriptions = new ConcurrentHashMap<Topic, SubscriptionList>();
+    private volatile AtomicReferenceArray<CachedTopic> mappedSubscriptions = new AtomicReferenceArray<CachedTopic>(64);
+    private final int maximumTopics;
+    private final ReferenceQueue<Object> collectedSubscribers = new ReferenceQueue<Object>();
+
+    // guarded by this
+    private final Map<Subscription<?>, Entry> entries = new HashMap<Subscription<?>, Entry>();
+    private final Map<Topic, Set<Entry>> exactIndex = new HashMap<Topic, Set<Entry>>();
+    private final SegmentTrie<Entry> patternIndex = new SegmentTrie<Entry>();
+    private final Set<Entry> unindexed = new HashSet<Entry>();
+    private final SegmentTrie<Topic> topicIndex = new SegmentTrie<Topic>();
+    private final Queue<CachedTopic> clock = new ArrayDeque<CachedTopic>();
+    private long order;
+    private long missCount;
+    private long evictionCount;
+    private long evictedHitCount;
+    private long totalLoadTime;
+    private long reapedCount;
+
+    SubscriptionManager(int maximumTopics) {
+        if (maximumTopics <= 0)
+            throw new IllegalArgumentException("Topic cache size must be positive: " + maximumTopics);
+        this.maximumTopics = maximumTopics;
+    }
 
-    void addSubscription(Subscription<?> subscription) {
-        subscriptions.add(subscription);
-        for (Map.Entry<Topic, SubscriptionList> entry : mappedSubscriptions.entrySet())
-            if (subscription.getTopicMatcher().matches(entry.getKey()))
-                entry.getValue().add(subscription);
+    synchronized SubscriptionHandle addSubscription(Subscription<?> subscription) {
+        reap();
+        Entry entry = index(subscription);
+        for (Topic topic : mappedTopics(entry, subscription)) {
+            SubscriptionList list = cached(topic).subscriptions;
+            list.add(subscription);
+            entry.lists.put(list, Boolean.TRUE);
+        }
+        return entry;
     }
 
-    void removeSubscriber(Subscriber<?> subscriber) {
-        for (Subscription<?> subscription : subscriptions)
-            if (subscription.getSubscriber().equals(subscriber)) {
-                subscriptions.remove(subscription);
-                for (Map.Entry<Topic, SubscriptionList> entry : mappedSubscriptions.entrySet())
-                    if (subscription.getTopicMatcher().matches(entry.getKey()))
-                        entry.getValue().remove(subscription);
+    /**
+     * Cancels the subscriptions matching the predicate, then adds the new ones. Each cached list affected is
+     * rebuilt only once.
+     */
+    synchronized List<SubscriptionHandle> update(List<Subscription<?>> added, Predicate<? super Subscription<?>> removed) {
+        reap();
+        Map<SubscriptionList, List<Subscription<?>>> lists = new IdentityHashMap<SubscriptionList, List<Subscription<?>>>();
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (removed.apply(entry.subscription)) {
+                it.remove();
+                entry.subscription.cancel();
+                unindex(entry);
+                for (SubscriptionList list : entry.lists.keySet())
+                    if (!lists.containsKey(list))
+                        lists.put(list, new ArrayList<Subscription<?>>(0));
+                entry.lists.clear();
+            }
+        }
+        List<SubscriptionHandle> handles = new ArrayList<SubscriptionHandle>(added.size());
+        for (Subscription<?> subscription : added) {
+            Entry entry = index(subscription);
+            for (Topic topic : mappedTopics(entry, subscription)) {
+                SubscriptionList list = cached(topic).subscriptions;
+                List<Subscription<?>> pending = lists.get(list);
+                if (pending == null)
+                    lists.put(list, pending = new ArrayList<Subscription<?>>(4));
+                pending.add(subscription);
+                entry.lists.put(list, Boolean.TRUE);
             }
+            handles.add(entry);
+        }
+        for (Map.Entry<SubscriptionList, List<Subscription<?>>> change : lists.entrySet())
+            change.getKey().update(change.getValue());
+        return handles;
+    }
+
+    synchronized void removeSubscriber(Subscriber<?> subscriber) {
+        reap();
+        for (Entry entry : new ArrayList<Entry>(entries.values()))
+            if (subscriber.equals(entry.subscription.getSubscriber()))
+                cancel(entry);
+    }
+
+    synchronized void removeSubscriber(Topics matcher, Subscriber<?> subscriber) {
+        reap();
+        for (Entry entry : new ArrayList<Entry>(entries.values()))
+            if (subscriber.equals(entry.subscription.getSubscriber()) && entry.subscription.getTopicMatcher().equals(matcher))
+                cancel(entry);
+    }
+
+    ReferenceQueue<Object> getReferenceQueue() {
+        return collectedSubscribers;
     }
 
-    void removeSubscriber(Topics matcher, Subscriber<?> subscriber) {
-        for (Subscription<?> subscription : subscriptions)
-            if (subscription.getSubscriber().equals(subscriber) && subscription.getTopicMatcher().equals(matcher)) {
-                subscriptions.remove(subscription);
-                for (Map.Entry<Topic, SubscriptionList> entry : mappedSubscriptions.entrySet())
-                    if (subscription.getTopicMatcher().matches(entry.getKey()))
-                        entry.getValue().remove(subscription);
+    synchronized long getReapedCount() {
+        reap();
+        return reapedCount;
+    }
+
+    SubscriptionList getSubscriptions(Topic topic) {
+        CachedTopic cached = cached(topic);
+        if (cached == null)
+            return resolve(topic);
+        if (!cached.referenced)
+            cached.referenced = true;
+        CachedTopic.HITS.incrementAndGet(cached);
+        return cached.subscriptions;
+    }
+
+    synchronized CacheStats getStats() {
+        long hitCount = evictedHitCount;
+        for (CachedTopic cached : clock)
+            hitCount += cached.hits;
+        return new CacheStats(hitCount, missCount, missCount, 0, totalLoadTime, evictionCount);
+    }
+
+    private CachedTopic cached(Topic topic) {
+        AtomicReferenceArray<CachedTopic> mappedSubscriptions = this.mappedSubscriptions;
+        int id = topic.getId();
+        if (id < mappedSubscriptions.length()) {
+            CachedTopic cached = mappedSubscriptions.get(id);
+            if (cached != null && cached.topic == topic)
+                return cached;
+        }
+        return null;
+    }
+
+    private synchronized SubscriptionList resolve(Topic topic) {
+        CachedTopic cached = cached(topic);
+        if (cached != null)
+            return cached.subscriptions;
+        long start = System.nanoTime();
+        reap();
+        SubscriptionList subscriptionList = new SubscriptionList();
+        for (Entry entry : candidates(topic)) {
+            Subscription<?> subscription = entry.subscription;
+            if (subscription.getSubscriber() != null && subscription.getTopicMatcher().matches(topic)) {
+                subscriptionList.add(subscription);
+                entry.lists.put(subscriptionList, Boolean.TRUE);
             }
+        }
+        cached = new CachedTopic(topic, subscriptionList);
+        AtomicReferenceArray<CachedTopic> mappedSubscriptions = this.mappedSubscriptions;
+        int id = topic.getId();
+        if (id >= mappedSubscriptions.length()) {
+            AtomicReferenceArray<CachedTopic> grown = new AtomicReferenceArray<CachedTopic>(Math.max(id + 1, mappedSubscriptions.length() * 2));
+            for (int i = 0, length = mappedSubscriptions.length(); i < length; i++)
+                grown.set(i, mappedSubscriptions.get(i));
+            this.mappedSubscriptions = mappedSubscriptions = grown;
+        }
+        mappedSubscriptions.set(id, cached);
+        topicIndex.addPath(topic.getSegments(), topic);
+        clock.offer(cached);
+        while (clock.size() > maximumTopics)
+            evict();
+        missCount++;
+        totalLoadTime += System.nanoTime() - start;
+        return subscriptionList;
     }
 
-    <E> Iterator<Subscription<E>> getSubscriptions(final Event<E> event) {
-        final Topic topic = event.getTopic();
-        SubscriptionList subscriptionList = mappedSubscriptions.get(topic);
-        if (subscriptionList == null) {
-            subscriptionList = new SubscriptionList();
-            for (Subscription<?> subscription : this.subscriptions)
-                if (subscription.getTopicMatcher().matches(topic))
-                    subscriptionList.add(subscription);
-            final SubscriptionList old = mappedSubscriptions.putIfAbsent(topic, subscriptionList);
-            if (old != null) subscriptionList = old;
+    private void evict() {
+        CachedTopic cached;
+        while ((cached = clock.poll()).referenced) {
+            cached.referenced = false;
+            clock.offer(cached);
+        }
+        mappedSubscriptions.compareAndSet(cached.topic.getId(), cached, null);
+        topicIndex.removePath(cached.topic.getSegments(), cached.topic);
+        for (Subscription<?> subscription : cached.subscriptions.snapshot()) {
+            Entry entry = entries.get(subscription);
+            if (entry != null)
+                entry.lists.remove(cached.subscriptions);
+        }
+        evictionCount++;
+        evictedHitCount += cached.hits;
+    }
+
+    private void reap() {
+        boolean collected = false;
+        while (collectedSubscribers.poll() != null)
+            collected = true;
+        if (!collected)
+            return;
+        Map<SubscriptionList, Boolean> lists = new IdentityHashMap<SubscriptionList, Boolean>();
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (entry.subscription.getSubscriber() == null) {
+                it.remove();
+                reapedCount++;
+                unindex(entry);
+                lists.putAll(entry.lists);
+            }
         }
-        return (Iterator) filter(subscriptionList.iterator(), new Predicate<Subscription<?>>() {
-            final Class<?> eventType = event.getSource().getClass();
+        for (SubscriptionList list : lists.keySet())
+            list.purge();
+    }
+
+    private synchronized void cancel(Entry entry) {
+        entry.subscription.cancel();
+        if (entries.remove(entry.subscription) == null)
+            return;
+        unindex(entry);
+        for (SubscriptionList list : entry.lists.keySet())
+            list.remove(entry.subscription);
+        entry.lists.clear();
+    }
+
+    private Entry index(Subscription<?> subscription) {
+        List<Topics> parts = new ArrayList<Topics>(1);
+        if (!subscription.getTopicMatcher().decompose(parts))
+            parts = null;
+        else
+            for (Topics part : parts)
+                if (!(part instanceof Topic || part instanceof TopicsMatcher)) {
+                    parts = null;
+                    break;
+                }
+        Entry entry = new Entry(order++, subscription, parts);
+        entries.put(subscription, entry);
+        if (parts == null)
+            unindexed.add(entry);
+        else
+            for (Topics part : parts) {
+                if (part instanceof Topic) {
+                    Set<Entry> set = exactIndex.get(part);
+                    if (set == null)
+                        exactIndex.put((Topic) part, set = new HashSet<Entry>(2));
+                    set.add(entry);
+                } else
+                    patternIndex.addPattern(((TopicsMatcher) part).getSegments(), entry);
+            }
+        return entry;
+    }
+
+    private void unindex(Entry entry) {
+        if (entry.parts == null)
+            unindexed.remove(entry);
+        else
+            for (Topics part : entry.parts) {
+                if (part instanceof Topic) {
+                    Set<Entry> set = exactIndex.get(part);
+                    if (set != null && set.remove(entry) && set.isEmpty())
+                        exactIndex.remove(part);
+                } else
+                    patternIndex.removePattern(((TopicsMatcher) part).getSegments(), entry);
+            }
+    }
+
+    /**
+     * @return the indexed subscriptions which may match this topic, in subscription order
+     */
+    private List<Entry> candidates(Topic topic) {
+        List<Entry> candidates = new ArrayList<Entry>();
+        Set<Entry> exact = exactIndex.get(topic);
+        if (exact != null)
+            candidates.addAll(exact);
+        patternIndex.matchPath(topic.getSegments(), candidates);
+        candidates.addAll(unindexed);
+        Collections.sort(candidates, ORDER);
+        Entry previous = null;
+        int size = 0;
+        for (Entry entry : candidates)
+            if (entry != previous)
+                candidates.set(size++, previous = entry);
+        return candidates.subList(0, size);
+    }
 
-            @Override
-            public boolean apply(Subscription<?> input) {
-                return input.getEventType().isAssignableFrom(eventType);
+    /**
+     * @return the cached topics matched by this subscription
+     */
+    private Collection<Topic> mappedTopics(Entry entry, Subscription<?> subscription) {
+        if (clock.isEmpty())
+            return Collections.emptyList();
+        Collection<Topic> candidates;
+        if (entry.parts == null) {
+            candidates = new ArrayList<Topic>(clock.size());
+            for (CachedTopic cached : clock)
+                candidates.add(cached.topic);
+        } else {
+            candidates = new LinkedHashSet<Topic>();
+            for (Topics part : entry.parts) {
+                if (part instanceof Topic) {
+                    if (cached((Topic) part) != null)
+                        candidates.add((Topic) part);
+                } else
+                    topicIndex.matchPattern(((TopicsMatcher) part).getSegments(), candidates);
             }
-        });
+        }
+        List<Topic> topics = new ArrayList<Topic>(candidates.size());
+        for (Topic topic : candidates)
+            if (subscription.getTopicMatcher().matches(topic))
+                topics.add(topic);
+        return topics;
+    }
+
+    private static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry o1, Entry o2) {
+            return o1.order < o2.order ? -1 : o1.order == o2.order ? 0 : 1;
+        }
+    };
+
+    private static final class CachedTopic {
+        static final AtomicLongFieldUpdater<CachedTopic> HITS = AtomicLongFieldUpdater.newUpdater(CachedTopic.class, "hits");
+
+        final Topic topic;
+        final SubscriptionList subscriptions;
+        volatile boolean referenced;
+        volatile long hits;
+
+        CachedTopic(Topic topic, SubscriptionList subscriptions) {
+            this.topic = topic;
+            this.subscriptions = subscriptions;
+        }
+    }
+
+    private final class Entry implements SubscriptionHandle {
+        final long order;
+        final Subscription<?> subscription;
+        final List<Topics> parts;
+        final Map<SubscriptionList, Boolean> lists = new IdentityHashMap<SubscriptionList, Boolean>(2);
+
+        Entry(long order, Subscription<?> subscription, List<Topics> parts) {
+            this.order = order;
+            this.subscription = subscription;
+            this.parts = parts;
+        }
+
+        @Override
+        public Subscription<?> getSubscription() {
+            return subscription;
+        }
+
+        @Override
+        public void cancel() {
+            if (!subscription.isCancelled())
+                SubscriptionManager.this.cancel(this);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return subscription.isCancelled();
+        }
+
+        @Override
+        public String toString() {
+            return subscription.toString();
+        }
     }
 
 }
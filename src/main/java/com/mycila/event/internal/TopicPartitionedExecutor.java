@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2010 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.event.internal;
+
+import com.mycila.event.Topic;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.mycila.event.internal.Ensure.notNull;
+
+/**
+ * Spreads publications over several single-threaded lanes according to the hash of their topic.
+ * <p>
+ * All the events of a topic go through the same lane and are thus fired in publish order, while
+ * events of unrelated topics are fired in parallel by the other lanes.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class TopicPartitionedExecutor extends PublishExecutor {
+
+    private final RingBufferExecutor[] lanes;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public TopicPartitionedExecutor(int lanes, int bufferSize, ThreadFactory threadFactory) {
+        if (lanes < 1)
+            throw new IllegalArgumentException("Lane count must be positive: " + lanes);
+        notNull(threadFactory, "Thread factory");
+        this.lanes = new RingBufferExecutor[lanes];
+        for (int i = 0; i < lanes; i++)
+            this.lanes[i] = new RingBufferExecutor(bufferSize, threadFactory);
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        notNull(command, "Runnable");
+        lanes[(next.getAndIncrement() & 0x7fffffff) % lanes.length].execute(command);
+    }
+
+    @Override
+    <E> void publish(DefaultDispatcher dispatcher, Topic topic, E source) {
+        lanes[lane(topic)].publish(dispatcher, topic, source);
+    }
+
+    @Override
+    void publishAll(DefaultDispatcher dispatcher, Topic topic, Object[] sources) {
+        lanes[lane(topic)].publishAll(dispatcher, topic, sources);
+    }
+
+    @Override
+    void publishTracked(DefaultDispatcher dispatcher, TrackedEvent<?> event) {
+        lanes[lane(event.getTopic())].publishTracked(dispatcher, event);
+    }
+
+    public void shutdown() {
+        for (RingBufferExecutor lane : lanes)
+            lane.shutdown();
+    }
+
+    private int lane(Topic topic) {
+        int h = topic.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return (h & 0x7fffffff) % lanes.length;
+    }
+}
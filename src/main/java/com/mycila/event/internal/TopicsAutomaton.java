@@ -0,0 +1,430 @@
+/**
+ * Copyright (C) 2010 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.event.internal;
+
+import com.mycila.event.Topic;
+import com.mycila.event.Topics;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.mycila.event.internal.Ensure.notNull;
+
+/**
+ * A {@link Topics} expression compiled into a single automaton. All the patterns of the expression are simulated
+ * together as one bit-parallel NFA, so that a topic is decided in one pass over its segments, whatever the
+ * number of patterns. Exact topics are looked up in a map, custom matchers are called as is, and
+ * {@code or}, {@code and} and {@code not} are then evaluated over the results of these leaves.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class TopicsAutomaton extends Topics implements Serializable {
+
+    private static final long serialVersionUID = 0;
+
+    private final Topics source;
+    private final transient int leafWords;
+    private final transient int stateWords;
+    private final transient PatternLeaf[] patterns;
+    private final transient long[] accepting;
+    private final transient long[] initial;
+    private final transient long[] anyPaths;
+    private final transient Map<String, long[]> literals;
+    private final transient long[] globs;
+    private final transient TopicsMatcher.Segment[] segments;
+    private final transient Map<Topic, long[]> exacts;
+    private final transient Topics[] customs;
+    private final transient int[] customLeaves;
+    private final transient Expression root;
+
+    private TopicsAutomaton(Topics source, Builder builder, Expression root) {
+        this.source = source;
+        this.root = root;
+        this.leafWords = words(builder.leafCount);
+        int states = 0;
+        for (TopicsMatcher pattern : builder.patterns.keySet())
+            states += pattern.getProgram().length + 1;
+        this.stateWords = words(states);
+        this.patterns = new PatternLeaf[states];
+        this.accepting = new long[stateWords];
+        this.initial = new long[stateWords];
+        this.anyPaths = new long[stateWords];
+        this.literals = new HashMap<String, long[]>();
+        this.globs = new long[stateWords];
+        this.segments = new TopicsMatcher.Segment[states];
+        int state = 0;
+        for (Map.Entry<TopicsMatcher, Integer> entry : builder.patterns.entrySet()) {
+            TopicsMatcher pattern = entry.getKey();
+            TopicsMatcher.Segment[] program = pattern.getProgram();
+            boolean anyPath = false;
+            set(initial, state);
+            for (TopicsMatcher.Segment segment : program) {
+                if (segment.anyPath) {
+                    set(anyPaths, state);
+                    anyPath = true;
+                } else if (segment.wildcard) {
+                    set(globs, state);
+                    segments[state] = segment;
+                } else {
+                    long[] mask = literals.get(segment.text);
+                    if (mask == null)
+                        literals.put(segment.text, mask = new long[stateWords]);
+                    set(mask, state);
+                }
+                state++;
+            }
+            boolean trailingStar = !anyPath && program.length > 0 && program[program.length - 1].singleStar;
+            PatternLeaf leaf = new PatternLeaf(entry.getValue(), state, pattern.isAbsolute(), pattern.isDirectory(), anyPath, trailingStar);
+            patterns[state] = leaf;
+            set(accepting, state);
+            if (trailingStar) {
+                patterns[state - 1] = leaf;
+                set(accepting, state - 1);
+            }
+            state++;
+        }
+        closure(initial, 0, stateWords - 1);
+        this.exacts = new HashMap<Topic, long[]>();
+        for (Map.Entry<Topic, Integer> entry : builder.exacts.entrySet()) {
+            long[] leaves = new long[leafWords];
+            set(leaves, entry.getValue());
+            exacts.put(entry.getKey(), leaves);
+        }
+        this.customs = builder.customs.keySet().toArray(new Topics[builder.customs.size()]);
+        this.customLeaves = new int[customs.length];
+        for (int i = 0; i < customs.length; i++)
+            customLeaves[i] = builder.customs.get(customs[i]);
+    }
+
+    @Override
+    public boolean matches(Topic topic) {
+        notNull(topic, "Topic");
+        long[] leaves = new long[leafWords];
+        if (stateWords > 0)
+            matchPatterns(topic, leaves);
+        if (!exacts.isEmpty()) {
+            long[] exact = exacts.get(topic);
+            if (exact != null)
+                for (int i = 0; i < leafWords; i++)
+                    leaves[i] |= exact[i];
+        }
+        for (int i = 0; i < customs.length; i++)
+            if (customs[i].matches(topic))
+                set(leaves, customLeaves[i]);
+        return root.eval(leaves);
+    }
+
+    private void matchPatterns(Topic topic, long[] leaves) {
+        long[] active = initial.clone();
+        long[] next = new long[stateWords];
+        int lo = 0, hi = stateWords - 1;
+        List<String> path = topic.getSegments();
+        for (int p = 0, size = path.size(); p < size; p++) {
+            String segment = path.get(p);
+            long[] literal = literals.get(segment);
+            int end = hi + 1 < stateWords ? hi + 1 : hi;
+            for (int i = lo; i <= hi; i++) {
+                long states = active[i];
+                if (states == 0)
+                    continue;
+                long moving = literal == null ? 0 : states & literal[i];
+                for (long bits = states & globs[i]; bits != 0; bits &= bits - 1) {
+                    int state = (i << 6) + Long.numberOfTrailingZeros(bits);
+                    if (segments[state].matches(segment))
+                        moving |= 1L << state;
+                }
+                next[i] |= moving << 1 | states & anyPaths[i];
+                if (moving < 0)
+                    next[i + 1] |= 1L;
+                active[i] = 0;
+            }
+            end = closure(next, lo, end);
+            while (lo <= end && next[lo] == 0)
+                lo++;
+            while (end >= lo && next[end] == 0)
+                end--;
+            if (lo > end)
+                return;
+            hi = end;
+            long[] swap = active;
+            active = next;
+            next = swap;
+        }
+        String name = topic.getName();
+        boolean absolute = name.startsWith("/");
+        boolean directory = name.endsWith("/");
+        for (int i = lo; i <= hi; i++)
+            for (long bits = active[i] & accepting[i]; bits != 0; bits &= bits - 1) {
+                PatternLeaf leaf = patterns[(i << 6) + Long.numberOfTrailingZeros(bits)];
+                if (leaf.accepts(active, absolute, directory))
+                    set(leaves, leaf.leaf);
+            }
+    }
+
+    public Topics getSource() {
+        return source;
+    }
+
+    @Override
+    public Topics compile() {
+        return this;
+    }
+
+    @Override
+    public boolean decompose(Collection<? super Topics> parts) {
+        return source.decompose(parts);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof TopicsAutomaton && ((TopicsAutomaton) o).source.equals(source);
+    }
+
+    @Override
+    public int hashCode() {
+        return 43 * source.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return source.toString();
+    }
+
+    private Object readResolve() {
+        return source.compile();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Follows the '**' epsilon transitions, which only lead forward
+     *
+     * @return the last word holding states
+     */
+    private int closure(long[] states, int from, int to) {
+        for (int i = from; i <= to; i++) {
+            long current = states[i], previous;
+            do {
+                previous = current;
+                current |= (current & anyPaths[i]) << 1;
+            } while (current != previous);
+            states[i] = current;
+            if ((current & anyPaths[i]) < 0 && i + 1 < stateWords) {
+                states[i + 1] |= 1L;
+                if (i == to)
+                    to++;
+            }
+        }
+        return to;
+    }
+
+    private static int words(int bits) {
+        return (bits + 63) >>> 6;
+    }
+
+    private static boolean isSet(long[] bits, int bit) {
+        return (bits[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    private static void set(long[] bits, int bit) {
+        bits[bit >>> 6] |= 1L << bit;
+    }
+
+    private static final class PatternLeaf {
+        final int leaf;
+        final int acceptState;
+        final boolean absolute;
+        final boolean directory;
+        final boolean anyPath;
+        final boolean trailingStar;
+
+        PatternLeaf(int leaf, int acceptState, boolean absolute, boolean directory, boolean anyPath, boolean trailingStar) {
+            this.leaf = leaf;
+            this.acceptState = acceptState;
+            this.absolute = absolute;
+            this.directory = directory;
+            this.anyPath = anyPath;
+            this.trailingStar = trailingStar;
+        }
+
+        /**
+         * Same rules as {@link TopicsMatcher}: separators only matter for patterns without '**', and a trailing
+         * '*' also matches a topic ending with a separator.
+         */
+        boolean accepts(long[] states, boolean absolute, boolean directory) {
+            if (absolute != this.absolute)
+                return false;
+            if (isSet(states, acceptState))
+                return anyPath || directory == this.directory;
+            return trailingStar && directory && isSet(states, acceptState - 1);
+        }
+    }
+
+    /**
+     * Boolean expression over the leaves (patterns, exact topics and custom matchers) of a compiled expression
+     */
+    public abstract static class Expression {
+        Expression() {
+        }
+
+        abstract boolean eval(long[] leaves);
+    }
+
+    private static final class AnyLeaf extends Expression {
+        final int[] ids;
+        final long[] mask;
+
+        AnyLeaf(int[] ids) {
+            int max = 0;
+            for (int id : ids)
+                max = Math.max(max, id);
+            this.ids = ids;
+            this.mask = new long[words(max + 1)];
+            for (int id : ids)
+                set(mask, id);
+        }
+
+        @Override
+        boolean eval(long[] leaves) {
+            for (int i = 0; i < mask.length; i++)
+                if ((leaves[i] & mask[i]) != 0)
+                    return true;
+            return false;
+        }
+    }
+
+    private static final class Or extends Expression {
+        final Expression[] expressions;
+
+        Or(Expression[] expressions) {
+            this.expressions = expressions;
+        }
+
+        @Override
+        boolean eval(long[] leaves) {
+            for (Expression expression : expressions)
+                if (expression.eval(leaves))
+                    return true;
+            return false;
+        }
+    }
+
+    private static final class And extends Expression {
+        final Expression[] expressions;
+
+        And(Expression[] expressions) {
+            this.expressions = expressions;
+        }
+
+        @Override
+        boolean eval(long[] leaves) {
+            for (Expression expression : expressions)
+                if (!expression.eval(leaves))
+                    return false;
+            return true;
+        }
+    }
+
+    private static final class Not extends Expression {
+        final Expression expression;
+
+        Not(Expression expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        boolean eval(long[] leaves) {
+            return !expression.eval(leaves);
+        }
+    }
+
+    /**
+     * Collects the leaves of an expression while it is walked by {@link Topics#compile()}
+     */
+    public static final class Builder {
+        private final Map<TopicsMatcher, Integer> patterns = new LinkedHashMap<TopicsMatcher, Integer>();
+        private final Map<Topic, Integer> exacts = new LinkedHashMap<Topic, Integer>();
+        private final Map<Topics, Integer> customs = new LinkedHashMap<Topics, Integer>();
+        private int leafCount;
+
+        private Builder() {
+        }
+
+        public Expression pattern(TopicsMatcher pattern) {
+            return leaf(patterns, notNull(pattern, "TopicMatcher"));
+        }
+
+        public Expression exact(Topic topic) {
+            return leaf(exacts, notNull(topic, "Topic"));
+        }
+
+        public Expression custom(Topics matcher) {
+            return leaf(customs, notNull(matcher, "TopicMatcher"));
+        }
+
+        public Expression or(Expression... expressions) {
+            List<Expression> others = new ArrayList<Expression>(expressions.length);
+            List<AnyLeaf> merged = new ArrayList<AnyLeaf>(expressions.length);
+            for (Expression expression : expressions) {
+                if (expression instanceof AnyLeaf)
+                    merged.add((AnyLeaf) expression);
+                else
+                    others.add(expression);
+            }
+            if (merged.size() > 1) {
+                int size = 0;
+                for (AnyLeaf leaf : merged)
+                    size += leaf.ids.length;
+                int[] ids = new int[size];
+                size = 0;
+                for (AnyLeaf leaf : merged) {
+                    System.arraycopy(leaf.ids, 0, ids, size, leaf.ids.length);
+                    size += leaf.ids.length;
+                }
+                others.add(0, new AnyLeaf(ids));
+            } else
+                others.addAll(0, merged);
+            return others.size() == 1 ? others.get(0) : new Or(others.toArray(new Expression[others.size()]));
+        }
+
+        public Expression and(Expression... expressions) {
+            return expressions.length == 1 ? expressions[0] : new And(expressions.clone());
+        }
+
+        public Expression not(Expression expression) {
+            return new Not(notNull(expression, "Expression"));
+        }
+
+        public Topics build(Topics source, Expression root) {
+            return new TopicsAutomaton(notNull(source, "TopicMatcher"), this, notNull(root, "Expression"));
+        }
+
+        private <T> Expression leaf(Map<T, Integer> ids, T key) {
+            Integer id = ids.get(key);
+            if (id == null)
+                ids.put(key, id = leafCount++);
+            return new AnyLeaf(new int[]{id});
+        }
+    }
+
+}
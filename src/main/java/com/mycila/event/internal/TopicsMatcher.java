@@ -15,29 +15,76 @@
  */
 package com.mycila.event.internal;
 
+import com.google.common.collect.ImmutableList;
 import com.mycila.event.Topic;
 import com.mycila.event.Topics;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.StringTokenizer;
 
 import static com.mycila.event.internal.Ensure.notNull;
 
+/**
+ * Ant-style topic patterns. Patterns are compiled once into a program of literal, glob ({@code ?}, {@code *})
+ * and {@code **} segments, matched against the segments cached by each {@link Topic} without allocating.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
 public final class TopicsMatcher extends Topics implements Serializable {
 
     private static final long serialVersionUID = 0;
     private static final String DEFAULT_PATH_SEPARATOR = "/";
     private final String pattern;
+    private final transient boolean absolute;
+    private final transient boolean directory;
+    private final transient ImmutableList<String> segments;
+    private final transient Segment[] program;
 
     private TopicsMatcher(String pattern) {
         this.pattern = notNull(pattern, "Pattern");
+        this.absolute = pattern.startsWith(DEFAULT_PATH_SEPARATOR);
+        this.directory = pattern.endsWith(DEFAULT_PATH_SEPARATOR);
+        this.segments = segments(pattern);
+        this.program = new Segment[segments.size()];
+        for (int i = 0; i < program.length; i++)
+            program[i] = new Segment(segments.get(i));
     }
 
     public boolean matches(Topic target) {
-        return doMatch(pattern, notNull(target, "Topic").getName(), true);
+        String path = notNull(target, "Topic").getName();
+        return path.startsWith(DEFAULT_PATH_SEPARATOR) == absolute
+                && doMatch(target.getSegments(), path.endsWith(DEFAULT_PATH_SEPARATOR));
+    }
+
+    @Override
+    public boolean decompose(Collection<? super Topics> parts) {
+        parts.add(this);
+        return true;
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * @return the segments of this pattern
+     */
+    List<String> getSegments() {
+        return segments;
+    }
+
+    Segment[] getProgram() {
+        return program;
+    }
+
+    boolean isAbsolute() {
+        return absolute;
+    }
+
+    boolean isDirectory() {
+        return directory;
     }
 
     @Override
@@ -56,62 +103,66 @@ public final class TopicsMatcher extends Topics implements Serializable {
         return pattern;
     }
 
+    private Object readResolve() {
+        return new TopicsMatcher(pattern);
+    }
+
     public static Topics forPattern(String pattern) {
         return new TopicsMatcher(pattern);
     }
 
-    private static boolean doMatch(String pattern, String path, boolean fullMatch) {
-        if (path.startsWith(DEFAULT_PATH_SEPARATOR) != pattern.startsWith(DEFAULT_PATH_SEPARATOR))
-            return false;
-        String[] pattDirs = tokenizeToStringArray(pattern, DEFAULT_PATH_SEPARATOR);
-        String[] pathDirs = tokenizeToStringArray(path, DEFAULT_PATH_SEPARATOR);
+    /**
+     * @return the path segments of a topic name or pattern, as compared by this matcher
+     */
+    public static ImmutableList<String> segments(String path) {
+        StringTokenizer st = new StringTokenizer(path, DEFAULT_PATH_SEPARATOR);
+        ImmutableList.Builder<String> tokens = ImmutableList.builder();
+        while (st.hasMoreTokens()) {
+            String token = st.nextToken().trim();
+            if (token.length() > 0)
+                tokens.add(token);
+        }
+        return tokens.build();
+    }
+
+    private boolean doMatch(List<String> path, boolean pathIsDirectory) {
+        final Segment[] program = this.program;
         int pattIdxStart = 0;
-        int pattIdxEnd = pattDirs.length - 1;
+        int pattIdxEnd = program.length - 1;
         int pathIdxStart = 0;
-        int pathIdxEnd = pathDirs.length - 1;
+        int pathIdxEnd = path.size() - 1;
         while (pattIdxStart <= pattIdxEnd && pathIdxStart <= pathIdxEnd) {
-            String patDir = pattDirs[pattIdxStart];
-            if ("**".equals(patDir))
+            Segment segment = program[pattIdxStart];
+            if (segment.anyPath)
                 break;
-            if (!matchStrings(patDir, pathDirs[pathIdxStart]))
+            if (!segment.matches(path.get(pathIdxStart)))
                 return false;
             pattIdxStart++;
             pathIdxStart++;
         }
         if (pathIdxStart > pathIdxEnd) {
             if (pattIdxStart > pattIdxEnd)
-                return pattern.endsWith(DEFAULT_PATH_SEPARATOR) ? path.endsWith(DEFAULT_PATH_SEPARATOR) : !path.endsWith(DEFAULT_PATH_SEPARATOR);
-            if (!fullMatch)
-                return true;
-            if (pattIdxStart == pattIdxEnd && pattDirs[pattIdxStart].equals("*") && path.endsWith(DEFAULT_PATH_SEPARATOR))
+                return directory == pathIsDirectory;
+            if (pattIdxStart == pattIdxEnd && program[pattIdxStart].singleStar && pathIsDirectory)
                 return true;
-            for (int i = pattIdxStart; i <= pattIdxEnd; i++)
-                if (!pattDirs[i].equals("**"))
-                    return false;
-            return true;
+            return onlyAnyPaths(program, pattIdxStart, pattIdxEnd);
         } else if (pattIdxStart > pattIdxEnd)
             return false;
-        else if (!fullMatch && "**".equals(pattDirs[pattIdxStart]))
-            return true;
         while (pattIdxStart <= pattIdxEnd && pathIdxStart <= pathIdxEnd) {
-            String patDir = pattDirs[pattIdxEnd];
-            if (patDir.equals("**"))
+            Segment segment = program[pattIdxEnd];
+            if (segment.anyPath)
                 break;
-            if (!matchStrings(patDir, pathDirs[pathIdxEnd]))
+            if (!segment.matches(path.get(pathIdxEnd)))
                 return false;
             pattIdxEnd--;
             pathIdxEnd--;
         }
-        if (pathIdxStart > pathIdxEnd) {
-            for (int i = pattIdxStart; i <= pattIdxEnd; i++)
-                if (!pattDirs[i].equals("**"))
-                    return false;
-            return true;
-        }
+        if (pathIdxStart > pathIdxEnd)
+            return onlyAnyPaths(program, pattIdxStart, pattIdxEnd);
         while (pattIdxStart != pattIdxEnd && pathIdxStart <= pathIdxEnd) {
             int patIdxTmp = -1;
             for (int i = pattIdxStart + 1; i <= pattIdxEnd; i++) {
-                if (pattDirs[i].equals("**")) {
+                if (program[i].anyPath) {
                     patIdxTmp = i;
                     break;
                 }
@@ -126,9 +177,7 @@ public final class TopicsMatcher extends Topics implements Serializable {
             strLoop:
             for (int i = 0; i <= strLength - patLength; i++) {
                 for (int j = 0; j < patLength; j++) {
-                    String subPat = pattDirs[pattIdxStart + j + 1];
-                    String subStr = pathDirs[pathIdxStart + i + j];
-                    if (!matchStrings(subPat, subStr))
+                    if (!program[pattIdxStart + j + 1].matches(path.get(pathIdxStart + i + j)))
                         continue strLoop;
                 }
                 foundIdx = pathIdxStart + i;
@@ -139,92 +188,74 @@ public final class TopicsMatcher extends Topics implements Serializable {
             pattIdxStart = patIdxTmp;
             pathIdxStart = foundIdx + patLength;
         }
-        for (int i = pattIdxStart; i <= pattIdxEnd; i++)
-            if (!pattDirs[i].equals("**"))
+        return onlyAnyPaths(program, pattIdxStart, pattIdxEnd);
+    }
+
+    private static boolean onlyAnyPaths(Segment[] program, int from, int to) {
+        for (int i = from; i <= to; i++)
+            if (!program[i].anyPath)
                 return false;
         return true;
     }
 
-    private static String[] toStringArray(Collection<String> collection) {
-        if (collection == null)
-            return null;
-        return collection.toArray(new String[collection.size()]);
-    }
+    static final class Segment {
+        final String text;
+        final boolean anyPath;
+        final boolean singleStar;
+        final boolean wildcard;
+        final boolean containsStar;
 
-    private static String[] tokenizeToStringArray(String str, String delimiters) {
-        return tokenizeToStringArray(str, delimiters, true, true);
-    }
+        Segment(String text) {
+            this.text = text;
+            this.anyPath = text.equals("**");
+            this.singleStar = text.equals("*");
+            this.containsStar = text.indexOf('*') >= 0;
+            this.wildcard = containsStar || text.indexOf('?') >= 0;
+        }
 
-    private static String[] tokenizeToStringArray(String str, String delimiters, boolean trimTokens, boolean ignoreEmptyTokens) {
-        if (str == null)
-            return null;
-        StringTokenizer st = new StringTokenizer(str, delimiters);
-        List<String> tokens = new ArrayList<String>();
-        while (st.hasMoreTokens()) {
-            String token = st.nextToken();
-            if (trimTokens)
-                token = token.trim();
-            if (!ignoreEmptyTokens || token.length() > 0)
-                tokens.add(token);
+        boolean matches(String str) {
+            return wildcard ? matchStrings(text, containsStar, str) : text.equals(str);
         }
-        return toStringArray(tokens);
     }
 
-    private static boolean matchStrings(String pattern, String str) {
-        char[] patArr = pattern.toCharArray();
-        char[] strArr = str.toCharArray();
+    private static boolean matchStrings(String pattern, boolean containsStar, String str) {
         int patIdxStart = 0;
-        int patIdxEnd = patArr.length - 1;
+        int patIdxEnd = pattern.length() - 1;
         int strIdxStart = 0;
-        int strIdxEnd = strArr.length - 1;
+        int strIdxEnd = str.length() - 1;
         char ch;
-        boolean containsStar = false;
-        for (char aPatArr : patArr) {
-            if (aPatArr == '*') {
-                containsStar = true;
-                break;
-            }
-        }
         if (!containsStar) {
             if (patIdxEnd != strIdxEnd)
                 return false;
             for (int i = 0; i <= patIdxEnd; i++) {
-                ch = patArr[i];
-                if (ch != '?' && ch != strArr[i])
+                ch = pattern.charAt(i);
+                if (ch != '?' && ch != str.charAt(i))
                     return false;
             }
             return true;
         }
         if (patIdxEnd == 0)
             return true;
-        while ((ch = patArr[patIdxStart]) != '*' && strIdxStart <= strIdxEnd) {
-            if (ch != '?' && ch != strArr[strIdxStart])
+        while ((ch = pattern.charAt(patIdxStart)) != '*' && strIdxStart <= strIdxEnd) {
+            if (ch != '?' && ch != str.charAt(strIdxStart))
                 return false;
             patIdxStart++;
             strIdxStart++;
         }
-        if (strIdxStart > strIdxEnd) {
-            for (int i = patIdxStart; i <= patIdxEnd; i++)
-                if (patArr[i] != '*')
-                    return false;
-            return true;
-        }
-        while ((ch = patArr[patIdxEnd]) != '*' && strIdxStart <= strIdxEnd) {
-            if (ch != '?' && ch != strArr[strIdxEnd])
+        if (strIdxStart > strIdxEnd)
+            return onlyStars(pattern, patIdxStart, patIdxEnd);
+        while ((ch = pattern.charAt(patIdxEnd)) != '*' && strIdxStart <= strIdxEnd) {
+            if (ch != '?' && ch != str.charAt(strIdxEnd))
                 return false;
             patIdxEnd--;
             strIdxEnd--;
         }
-        if (strIdxStart > strIdxEnd) {
-            for (int i = patIdxStart; i <= patIdxEnd; i++)
-                if (patArr[i] != '*')
-                    return false;
-            return true;
-        }
+        if (strIdxStart > strIdxEnd)
+            return onlyStars(pattern, patIdxStart, patIdxEnd);
         while (patIdxStart != patIdxEnd && strIdxStart <= strIdxEnd) {
             int patIdxTmp = -1;
             for (int i = patIdxStart + 1; i <= patIdxEnd; i++) {
-                if (patArr[i] == '*') {
+                if (pattern.charAt(i) == '*') {
                     patIdxTmp = i;
                     break;
                 }
@@ -239,8 +270,8 @@ public final class TopicsMatcher extends Topics implements Serializable {
             strLoop:
             for (int i = 0; i <= strLength - patLength; i++) {
                 for (int j = 0; j < patLength; j++) {
-                    ch = patArr[patIdxStart + j + 1];
-                    if (ch != '?' && ch != strArr[strIdxStart + i + j])
+                    ch = pattern.charAt(patIdxStart + j + 1);
+                    if (ch != '?' && ch != str.charAt(strIdxStart + i + j))
                         continue strLoop;
                 }
                 foundIdx = strIdxStart + i;
@@ -251,9 +282,12 @@ public final class TopicsMatcher extends Topics implements Serializable {
             patIdxStart = patIdxTmp;
             strIdxStart = foundIdx + patLength;
         }
+        return onlyStars(pattern, patIdxStart, patIdxEnd);
+    }
 
-        for (int i = patIdxStart; i <= patIdxEnd; i++)
-            if (patArr[i] != '*')
+    private static boolean onlyStars(String pattern, int from, int to) {
+        for (int i = from; i <= to; i++)
+            if (pattern.charAt(i) != '*')
                 return false;
         return true;
     }
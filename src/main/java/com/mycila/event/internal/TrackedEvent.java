@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2010 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.event.internal;
+
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.mycila.event.Delivery;
+import com.mycila.event.Event;
+import com.mycila.event.Subscription;
+import com.mycila.event.Topic;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An event published with tracking, which is also its own {@link Delivery}: a single object goes through the
+ * dispatcher and counts the subscriber calls still running.
+ * <p/>
+ * The count starts at one for the dispatch itself and is raised by the number of subscriptions before they are
+ * called. Each subscription then completes it exactly once: when called, skipped, conflated or discarded, or
+ * once its batch has been delivered for a batch subscription.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class TrackedEvent<E> extends AbstractFuture<Delivery> implements Event<E>, Delivery {
+
+    private final Topic topic;
+    private final E source;
+    private final long timestamp = System.nanoTime();
+    private final AtomicInteger pending = new AtomicInteger(1);
+    private final Runnable completion = new Runnable() {
+        public void run() {
+            completed();
+        }
+    };
+    private volatile int subscriberCount;
+
+    // guarded by this
+    private Map<Subscription<?>, Exception> failures;
+
+    TrackedEvent(Topic topic, E source) {
+        this.topic = topic;
+        this.source = source;
+    }
+
+    @Override
+    public Topic getTopic() {
+        return topic;
+    }
+
+    @Override
+    public E getSource() {
+        return source;
+    }
+
+    @Override
+    public long nanoTime() {
+        return timestamp;
+    }
+
+    @Override
+    public int getSubscriberCount() {
+        return subscriberCount;
+    }
+
+    @Override
+    public synchronized Map<Subscription<?>, Exception> getFailures() {
+        return failures == null ?
+                Collections.<Subscription<?>, Exception>emptyMap() :
+                Collections.unmodifiableMap(new LinkedHashMap<Subscription<?>, Exception>(failures));
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "Event{timestamp=" + timestamp + ",topic=" + topic + ",source=" + source + "}";
+    }
+
+    void dispatching(int subscriptions) {
+        subscriberCount = subscriptions;
+        pending.addAndGet(subscriptions);
+    }
+
+    synchronized void failed(Subscription<?> subscription, Exception e) {
+        if (failures == null)
+            failures = new LinkedHashMap<Subscription<?>, Exception>(4);
+        if (!failures.containsKey(subscription))
+            failures.put(subscription, e);
+    }
+
+    void completed() {
+        if (pending.decrementAndGet() == 0)
+            set(this);
+    }
+
+    /**
+     * @param future the completion of the call, or null if it is over
+     */
+    void completed(ListenableFuture<?> future) {
+        if (future == null)
+            completed();
+        else
+            future.addListener(completion, DirectExecutor.immediate());
+    }
+
+    void abort(Throwable t) {
+        setException(t);
+    }
+
+    Runnable publication(final DefaultDispatcher dispatcher) {
+        return new Discardable() {
+            public void run() {
+                dispatcher.dispatch(TrackedEvent.this);
+            }
+
+            public void discard() {
+                abort(new RejectedExecutionException("Publication dropped"));
+            }
+        };
+    }
+
+    Runnable call(final DefaultDispatcher dispatcher, final Subscription<E> subscription) {
+        return new Discardable() {
+            public void run() {
+                dispatcher.deliver(subscription, TrackedEvent.this);
+            }
+
+            public void discard() {
+                failed(subscription, new RejectedExecutionException("Subscriber call dropped"));
+                completed();
+            }
+        };
+    }
+
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2010 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.event;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static com.mycila.event.Topic.match;
+import static com.mycila.event.Topic.only;
+import static com.mycila.event.Topic.topic;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public final class AllocationTest {
+
+    private static final int N_EVENTS = 100000;
+
+    @Test
+    public void test_SYNCHRONOUS_UNSAFE_publish_does_not_allocate() {
+        assertNoAllocation(Dispatchers.synchronousUnsafeReusingEvents(ErrorHandlers.rethrow()));
+    }
+
+    @Test
+    public void test_SYNCHRONOUS_SAFE_publish_does_not_allocate() {
+        assertNoAllocation(Dispatchers.synchronousSafeReusingEvents(ErrorHandlers.rethrow()));
+    }
+
+    private static void assertNoAllocation(Dispatcher dispatcher) {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported());
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        final int[] received = new int[1];
+        Subscriber<String> subscriber = new Subscriber<String>() {
+            public void onEvent(Event<String> event) throws Exception {
+                received[0]++;
+            }
+        };
+        dispatcher.subscribe(only("prog/events/a"), String.class, subscriber);
+        dispatcher.subscribe(match("prog/events/**"), String.class, subscriber);
+        dispatcher.subscribe(match("prog/events/**"), Integer.class, subscriber);
+
+        Topic topic = topic("prog/events/a");
+        String source = "Hello for a";
+        for (int i = 0; i < N_EVENTS; i++)
+            dispatcher.publish(topic, source);
+
+        long threadId = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < N_EVENTS; i++)
+            dispatcher.publish(topic, source);
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+        dispatcher.close();
+
+        assertEquals(N_EVENTS * 2 * 2, received[0]);
+        assertTrue("Allocated " + allocated + " bytes", allocated < N_EVENTS);
+    }
+
+}
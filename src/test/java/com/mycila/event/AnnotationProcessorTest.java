@@ -15,6 +15,9 @@
  */
 package com.mycila.event;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.mycila.event.annotation.Group;
 import com.mycila.event.annotation.Publish;
 import com.mycila.event.annotation.Reference;
@@ -26,9 +29,12 @@ import org.junit.runners.JUnit4;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static com.mycila.event.Reachability.WEAK;
+import static com.mycila.event.Topic.topic;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 /**
  * @author Mathieu Carbou (mathieu.carbou@gmail.com)
@@ -93,6 +99,58 @@ public final class AnnotationProcessorTest {
         assertEquals(sequence.toString(), "[Hello for a, Hello for a1, Hello for a1]");
     }
 
+    @Test
+    public void test_subscribe_batch() throws InterruptedException {
+        final List<Object> batches = new CopyOnWriteArrayList<Object>();
+        Object o = new Object() {
+            @Subscribe(topics = "prog/events/a", eventType = String.class, batchSize = 2, maxLatency = 50000)
+            private void handle(List<String> sources) {
+                batches.add(sources);
+            }
+
+            @Subscribe(topics = "prog/events/b", eventType = String.class, batchSize = 2)
+            private void handle2(List<Event<String>> events) {
+                batches.add(events.get(0).getSource() + "," + events.get(1).getSource());
+            }
+        };
+        processor.register(o);
+        dispatcher.publish(topic("prog/events/a"), "a1");
+        dispatcher.publish(topic("prog/events/b"), "b1");
+        dispatcher.publish(topic("prog/events/a"), "a2");
+        dispatcher.publish(topic("prog/events/a"), "a3");
+        dispatcher.publish(topic("prog/events/b"), "b2");
+        assertEquals("[[a1, a2], b1,b2]", batches.toString());
+        for (int i = 0; i < 100 && batches.size() < 3; i++)
+            Thread.sleep(10);
+        assertEquals("[[a1, a2], b1,b2, [a3]]", batches.toString());
+    }
+
+    @Test
+    public void test_subscribe_future() {
+        final List<Object> events = new ArrayList<Object>();
+        final SettableFuture<Object> pending = SettableFuture.create();
+        Object o = new Object() {
+            @Subscribe(topics = "prog/events/async", eventType = String.class)
+            private ListenableFuture<?> handle(String source) {
+                events.add(source);
+                return source.equals("fail") ?
+                        Futures.immediateFailedFuture(new IllegalStateException(source)) :
+                        pending;
+            }
+        };
+        processor.register(o);
+        dispatcher.publish(topic("prog/events/async"), "ok");
+        assertEquals("[ok]", events.toString());
+        try {
+            dispatcher.publish(topic("prog/events/async"), "fail");
+            fail();
+        } catch (SubscriberExecutionException e) {
+            assertEquals(IllegalStateException.class, e.getCause().getClass());
+        }
+        pending.set(null);
+        assertEquals("[ok, fail]", events.toString());
+    }
+
     @Test
     public void test_group() {
         final List<Object> events = new ArrayList<Object>();
@@ -119,6 +177,49 @@ public final class AnnotationProcessorTest {
         assertEquals(events.toString(), "[handle1-hello3, handle2-hello3, handle3-bonjour]");
     }
 
+    @Test
+    public void test_plain_dispatcher() {
+        final Dispatcher delegate = dispatcher;
+        MycilaEvent processor = MycilaEvent.with(new Dispatcher() {
+            public <E> void publish(Topic topic, E source) {
+                delegate.publish(topic, source);
+            }
+
+            public <E> void subscribe(Topics matcher, Class<?> eventType, Subscriber<E> subscriber) {
+                delegate.subscribe(matcher, eventType, subscriber);
+            }
+
+            public <E> void unsubscribe(Subscriber<E> subscriber) {
+                delegate.unsubscribe(subscriber);
+            }
+
+            public <E> void unsubscribe(Topics matcher, Subscriber<E> subscriber) {
+                delegate.unsubscribe(matcher, subscriber);
+            }
+
+            public void close() {
+                delegate.close();
+            }
+        });
+        processor.register(new Object() {
+            @Subscribe(topics = "prog/events/a", eventType = String.class)
+            private void handle(Event<String> event) {
+                sequence.add(event.getSource());
+            }
+        });
+        ((BatchPublisher) processor.createPublisher(topic("prog/events/a"))).publishAll(new Object[]{"a1", "a2"});
+        assertEquals("[a1, a2]", sequence.toString());
+        try {
+            processor.register(new Object() {
+                @Subscribe(topics = "prog/events/a", eventType = String.class, batchSize = 2)
+                private void handle(List<String> sources) {
+                }
+            });
+            fail();
+        } catch (UnsupportedOperationException ignored) {
+        }
+    }
+
     private void publish() {
         B b = processor.instanciate(B.class);
         C c = processor.instanciate(C.class);
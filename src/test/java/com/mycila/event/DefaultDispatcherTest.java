@@ -15,7 +15,14 @@
  */
 package com.mycila.event;
 
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.SettableFuture;
 import com.mycila.event.annotation.Reference;
+import com.mycila.event.internal.DefaultDispatcher;
+import com.mycila.event.internal.DirectExecutor;
+import com.mycila.event.internal.TopicPartitionedExecutor;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -23,8 +30,20 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -32,6 +51,10 @@ import static com.mycila.event.Topic.match;
 import static com.mycila.event.Topic.only;
 import static com.mycila.event.Topic.topic;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -43,11 +66,11 @@ public final class DefaultDispatcherTest {
 
     private final List<Object> sequence = new ArrayList<Object>();
 
-    private Dispatcher dispatcher;
+    private ExtendedDispatcher dispatcher;
 
     @Before
     public void setup() {
-        dispatcher = Dispatchers.synchronousUnsafe(ErrorHandlers.rethrow());
+        dispatcher = (ExtendedDispatcher) Dispatchers.synchronousUnsafe(ErrorHandlers.rethrow());
         sequence.clear();
     }
 
@@ -85,6 +108,461 @@ public final class DefaultDispatcherTest {
         assertEquals(sequence.toString(), "[]");
     }
 
+    @Test
+    public void test_subscribe_weak_while_reachable() throws InterruptedException {
+        @Reference(Reachability.WEAK)
+        class C implements Subscriber<String> {
+            public void onEvent(Event<String> event) throws Exception {
+                sequence.add(event.getSource());
+            }
+        }
+        C subscriber = new C();
+        dispatcher.subscribe(only("prog/events/a"), String.class, subscriber);
+        dispatcher.subscribe(only("prog/events/a"), String.class, new C());
+
+        System.gc();
+        System.gc();
+        System.gc();
+
+        dispatcher.publish(topic("prog/events/a"), "Hello for a");
+        // collected references are enqueued asynchronously by the JVM
+        DefaultDispatcher defaultDispatcher = (DefaultDispatcher) dispatcher;
+        for (int i = 0; i < 100 && defaultDispatcher.getReapedSubscriptionCount() == 0; i++)
+            Thread.sleep(10);
+        assertEquals(1, defaultDispatcher.getReapedSubscriptionCount());
+        dispatcher.unsubscribe(subscriber);
+        dispatcher.publish(topic("prog/events/a"), "Hello again");
+        assertEquals("[Hello for a]", sequence.toString());
+    }
+
+    @Test
+    public void test_subscribe_async_weak_while_reachable() throws InterruptedException {
+        @Reference(Reachability.WEAK)
+        class C implements AsyncSubscriber<String> {
+            public ListenableFuture<?> onEvent(Event<String> event) throws Exception {
+                sequence.add(event.getSource());
+                SettableFuture<Object> future = SettableFuture.create();
+                future.set(null);
+                return future;
+            }
+        }
+        C subscriber = new C();
+        SubscriptionHandle handle = dispatcher.subscribeAsync(only("prog/events/a"), String.class, subscriber);
+        dispatcher.subscribeAsync(only("prog/events/a"), String.class, new C());
+
+        System.gc();
+        System.gc();
+        System.gc();
+
+        dispatcher.publish(topic("prog/events/a"), "Hello for a");
+        // the adapter is held by its subscription, only the unreachable subscriber is collected
+        DefaultDispatcher defaultDispatcher = (DefaultDispatcher) dispatcher;
+        for (int i = 0; i < 100 && defaultDispatcher.getReapedSubscriptionCount() == 0; i++)
+            Thread.sleep(10);
+        assertEquals(1, defaultDispatcher.getReapedSubscriptionCount());
+        assertEquals("[Hello for a]", sequence.toString());
+        assertFalse(handle.isCancelled());
+        handle.cancel();
+        dispatcher.publish(topic("prog/events/a"), "Hello again");
+        assertEquals("[Hello for a]", sequence.toString());
+        assertNull(handle.getSubscription().getSubscriber());
+        assertTrue(subscriber != null);
+    }
+
+    @Test
+    public void test_subscribe_batch_weak_while_reachable() {
+        @Reference(Reachability.WEAK)
+        class C implements BatchSubscriber<String> {
+            public void onEvents(List<Event<String>> events) throws Exception {
+                for (Event<String> event : events)
+                    sequence.add(event.getSource());
+            }
+        }
+        C subscriber = new C();
+        dispatcher.subscribe(only("prog/events/a"), String.class, subscriber, 2, 0, TimeUnit.SECONDS);
+
+        System.gc();
+        System.gc();
+        System.gc();
+
+        dispatcher.publish(topic("prog/events/a"), "1");
+        dispatcher.publish(topic("prog/events/a"), "2");
+        assertEquals("[1, 2]", sequence.toString());
+        assertTrue(subscriber != null);
+    }
+
+    @Test
+    public void test_subscribe_batch_failure() {
+        final List<Object> failed = new ArrayList<Object>();
+        ExtendedDispatcher dispatcher = (ExtendedDispatcher) Dispatchers.synchronousUnsafe(new ErrorHandler() {
+            public <E> void onError(Subscription<E> subscription, Event<E> event, Exception e) {
+                failed.add(event.getSource() + ":" + e.getMessage());
+            }
+        });
+        dispatcher.subscribe(only("prog/events/a"), String.class, new BatchSubscriber<String>() {
+            public void onEvents(List<Event<String>> events) throws Exception {
+                throw new IllegalStateException("batch of " + events.size());
+            }
+        }, 3, 0, TimeUnit.SECONDS);
+        for (int i = 1; i <= 3; i++)
+            dispatcher.publish(topic("prog/events/a"), String.valueOf(i));
+        assertEquals("[1:batch of 3, 2:batch of 3, 3:batch of 3]", failed.toString());
+    }
+
+    @Test
+    public void test_subscribe_batch_flush_rejected() throws InterruptedException {
+        Executor inline = new Executor() {
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        Executor rejecting = new Executor() {
+            public void execute(Runnable command) {
+                if (Thread.currentThread().getName().equals("mycila-event-batch-timer"))
+                    throw new RejectedExecutionException();
+                command.run();
+            }
+        };
+        ExtendedDispatcher dispatcher = (ExtendedDispatcher) Dispatchers.custom(ErrorHandlers.rethrow(), inline, rejecting);
+        final BlockingQueue<String> batches = new LinkedBlockingQueue<String>();
+        dispatcher.subscribe(only("prog/events/a"), String.class, new BatchSubscriber<String>() {
+            public void onEvents(List<Event<String>> events) throws Exception {
+                batches.add(events.size() + " from " + Thread.currentThread().getName());
+            }
+        }, 10, 50, TimeUnit.MILLISECONDS);
+        dispatcher.publish(topic("prog/events/a"), "1");
+        // the timer delivers the late batch itself when the executor rejects it
+        assertEquals("1 from mycila-event-batch-timer", batches.poll(5, TimeUnit.SECONDS));
+        dispatcher.close();
+    }
+
+    @Test
+    public void test_subscription_handle_cancel() {
+        SubscriptionHandle a = dispatcher.subscribeWithHandle(match("prog/events/**"), String.class, recorder("a"));
+        SubscriptionHandle b = dispatcher.subscribeWithHandle(only("prog/events/a"), String.class, recorder("b"));
+        dispatcher.publish(topic("prog/events/a"), "1");
+        assertFalse(a.isCancelled());
+        a.cancel();
+        a.cancel();
+        assertTrue(a.isCancelled());
+        assertNull(a.getSubscription().getSubscriber());
+        dispatcher.publish(topic("prog/events/a"), "2");
+        dispatcher.publish(topic("prog/events/b"), "3");
+        b.cancel();
+        dispatcher.publish(topic("prog/events/a"), "4");
+        assertEquals("[a:1, b:1, b:2]", sequence.toString());
+    }
+
+    @Test
+    public void test_publish_topic_id() {
+        dispatcher.subscribe(only("prog/events/a"), String.class, recorder("a"));
+        Topic topic = topic("prog/events/a");
+        dispatcher.publish(topic.getId(), "1");
+        dispatcher.publish(topic, "2");
+        assertEquals("[a:1, a:2]", sequence.toString());
+        try {
+            dispatcher.publish(Integer.MAX_VALUE, "3");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Unknown topic id: " + Integer.MAX_VALUE, e.getMessage());
+        }
+    }
+
+    @Test
+    public void test_event_kept_by_subscriber() throws InterruptedException {
+        Dispatcher asynchronous = Dispatchers.asynchronousSafe();
+        try {
+            final BlockingQueue<Event<String>> kept = new LinkedBlockingQueue<Event<String>>();
+            asynchronous.subscribe(only("prog/events/a"), String.class, new Subscriber<String>() {
+                public void onEvent(Event<String> event) throws Exception {
+                    kept.add(event);
+                }
+            });
+            asynchronous.publish(topic("prog/events/a"), "1");
+            asynchronous.publish(topic("prog/events/a"), "2");
+            Event<String> first = kept.poll(5, TimeUnit.SECONDS);
+            assertEquals("2", kept.poll(5, TimeUnit.SECONDS).getSource());
+            assertEquals("1", first.getSource());
+            assertEquals(topic("prog/events/a"), first.getTopic());
+        } finally {
+            asynchronous.close();
+        }
+    }
+
+    @Test
+    public void test_event_reused() {
+        final List<Event<String>> kept = new ArrayList<Event<String>>();
+        Subscriber<String> subscriber = new Subscriber<String>() {
+            public void onEvent(Event<String> event) throws Exception {
+                kept.add(event);
+            }
+        };
+        dispatcher.subscribe(only("prog/events/a"), String.class, subscriber);
+        dispatcher.publish(topic("prog/events/a"), "1");
+        dispatcher.publish(topic("prog/events/a"), "2");
+        // a synchronous dispatcher only reuses its events when created to
+        assertEquals("1", kept.get(0).getSource());
+        assertNotSame(kept.get(0), kept.get(1));
+
+        kept.clear();
+        Dispatcher reusing = Dispatchers.synchronousUnsafeReusingEvents();
+        reusing.subscribe(only("prog/events/a"), String.class, subscriber);
+        reusing.publish(topic("prog/events/a"), "1");
+        reusing.publish(topic("prog/events/a"), "2");
+        assertSame(kept.get(0), kept.get(1));
+        reusing.close();
+    }
+
+    @Test
+    public void test_publish_all() throws InterruptedException {
+        dispatcher.subscribe(only("prog/events/a"), String.class, recorder("string"));
+        dispatcher.subscribe(only("prog/events/a"), Object.class, recorder("object"));
+        dispatcher.publishAll(topic("prog/events/a"), Arrays.asList("a", 1, "b"));
+        dispatcher.publishAll(topic("prog/events/a"), new String[]{"c"});
+        assertEquals("[string:a, object:a, object:1, string:b, object:b, string:c, object:c]", sequence.toString());
+
+        assertPublishAllInOrder(Dispatchers.broadcastOrdered(8, ErrorHandlers.rethrow()));
+        assertPublishAllInOrder(Dispatchers.forkJoin(8, 64, ErrorHandlers.rethrow()));
+    }
+
+    /**
+     * Each subscriber must receive the whole batch in order and never be called by two threads at a time
+     */
+    private static void assertPublishAllInOrder(Dispatcher dispatcher) throws InterruptedException {
+        final int events = 2000;
+        final int subscribers = 4;
+        final CountDownLatch done = new CountDownLatch(subscribers);
+        final AtomicInteger errors = new AtomicInteger();
+        for (int i = 0; i < subscribers; i++) {
+            dispatcher.subscribe(only("prog/events/batch"), Integer.class, new Subscriber<Integer>() {
+                final AtomicBoolean running = new AtomicBoolean();
+                int expected;
+
+                public void onEvent(Event<Integer> event) throws Exception {
+                    if (!running.compareAndSet(false, true))
+                        errors.incrementAndGet();
+                    if (event.getSource() != expected++)
+                        errors.incrementAndGet();
+                    running.set(false);
+                    if (expected == events)
+                        done.countDown();
+                }
+            });
+        }
+        Integer[] batch = new Integer[events];
+        for (int i = 0; i < events; i++)
+            batch[i] = i;
+        ((ExtendedDispatcher) dispatcher).publishAll(topic("prog/events/batch"), batch);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(0, errors.get());
+        dispatcher.close();
+    }
+
+    @Test
+    public void test_publish_all_failing_event() throws InterruptedException {
+        assertPublishAllDespiteFailure(Dispatchers.broadcastUnordered(4, ErrorHandlers.rethrow()));
+        assertPublishAllDespiteFailure(Dispatchers.broadcastOrdered(4, ErrorHandlers.rethrow()));
+        assertPublishAllDespiteFailure(Dispatchers.forkJoin(4, 8, ErrorHandlers.rethrow()));
+    }
+
+    /**
+     * An event whose failure is rethrown by the error handler must not drop the next events of the batch
+     */
+    private static void assertPublishAllDespiteFailure(Dispatcher dispatcher) throws InterruptedException {
+        final BlockingQueue<Integer> received = new LinkedBlockingQueue<Integer>();
+        dispatcher.subscribe(only("prog/events/batch"), Integer.class, new Subscriber<Integer>() {
+            public void onEvent(Event<Integer> event) throws Exception {
+                received.add(event.getSource());
+                if (event.getSource() == 1)
+                    throw new IllegalStateException("Failing event");
+            }
+        });
+        ((ExtendedDispatcher) dispatcher).publishAll(topic("prog/events/batch"), new Integer[]{0, 1, 2, 3});
+        for (int i = 0; i < 4; i++)
+            assertEquals(Integer.valueOf(i), received.poll(5, TimeUnit.SECONDS));
+        dispatcher.close();
+    }
+
+    @Test
+    public void test_overflow_policy() throws InterruptedException {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        OverflowPolicy policy = OverflowPolicy.dropNewest();
+        Dispatcher dispatcher = Dispatchers.asynchronousSafe(1, policy);
+        dispatcher.subscribe(only("prog/events/a"), String.class, new Subscriber<String>() {
+            public void onEvent(Event<String> event) throws Exception {
+                blocked.await();
+                sequence.add(event.getSource());
+            }
+        });
+        // the first event is handed to the thread, the second one is queued
+        for (int i = 0; i < 5; i++)
+            dispatcher.publish(topic("prog/events/a"), "event" + i);
+        assertEquals(3, policy.getDroppedCount());
+        blocked.countDown();
+        dispatcher.close();
+
+        policy = OverflowPolicy.failFast();
+        dispatcher = Dispatchers.asynchronousSafe(1, policy);
+        dispatcher.subscribe(only("prog/events/a"), String.class, new Subscriber<String>() {
+            public void onEvent(Event<String> event) throws Exception {
+                Thread.sleep(1000);
+            }
+        });
+        try {
+            for (int i = 0; i < 3; i++)
+                dispatcher.publish(topic("prog/events/a"), "event" + i);
+            fail();
+        } catch (RejectedExecutionException e) {
+            assertEquals(1, policy.getRejectedCount());
+        } finally {
+            dispatcher.close();
+        }
+    }
+
+    @Test
+    public void test_broadcast_ordered_completion() throws InterruptedException {
+        final List<String> calls = new CopyOnWriteArrayList<String>();
+        final CountDownLatch done = new CountDownLatch(30);
+        Dispatcher dispatcher = Dispatchers.broadcastOrdered(3);
+        for (int i = 0; i < 3; i++)
+            dispatcher.subscribe(only("prog/events/a"), String.class, new Subscriber<String>() {
+                public void onEvent(Event<String> event) throws Exception {
+                    Thread.sleep(event.getSource().length() % 3);
+                    calls.add(event.getSource());
+                    done.countDown();
+                }
+            });
+        for (int i = 0; i < 10; i++)
+            dispatcher.publish(topic("prog/events/a"), "event" + i);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        dispatcher.close();
+        // all the subscribers of an event have completed before the next event is dispatched
+        for (int i = 0; i < 30; i++)
+            assertEquals("event" + (i / 3), calls.get(i));
+    }
+
+    @Test
+    public void test_broadcast_ordered_publishing_subscriber() throws InterruptedException {
+        OverflowPolicy policy = OverflowPolicy.callerRuns();
+        final Dispatcher dispatcher = Dispatchers.broadcastOrdered(2, 1, policy);
+        final AtomicInteger rejected = new AtomicInteger();
+        final CountDownLatch published = new CountDownLatch(1);
+        dispatcher.subscribe(only("prog/events/a"), String.class, new Subscriber<String>() {
+            public void onEvent(Event<String> event) throws Exception {
+                // the first publication fills the queue, the publishing thread being busy with this event
+                for (int i = 0; i < 3; i++) {
+                    try {
+                        dispatcher.publish(topic("prog/events/b"), "b" + i);
+                    } catch (RejectedExecutionException e) {
+                        rejected.incrementAndGet();
+                    }
+                }
+                published.countDown();
+            }
+        });
+        dispatcher.publish(topic("prog/events/a"), "a");
+        assertTrue(published.await(5, TimeUnit.SECONDS));
+        assertEquals(2, rejected.get());
+        assertEquals(2, policy.getRejectedCount());
+        dispatcher.close();
+    }
+
+    @Test
+    public void test_batch() {
+        Subscriber<String> a = recorder("a");
+        List<SubscriptionHandle> handles = dispatcher.batch()
+                .subscribe(match("prog/events/**"), String.class, a)
+                .subscribe(only("prog/events/a"), String.class, recorder("b"))
+                .commit();
+        assertEquals(2, handles.size());
+        dispatcher.publish(topic("prog/events/a"), "1");
+        dispatcher.batch()
+                .subscribe(only("prog/events/a"), String.class, recorder("c"))
+                .unsubscribe(a)
+                .commit();
+        assertTrue(handles.get(0).isCancelled());
+        assertFalse(handles.get(1).isCancelled());
+        dispatcher.publish(topic("prog/events/a"), "2");
+        assertEquals("[a:1, b:1, b:2, c:2]", sequence.toString());
+    }
+
+    @Test
+    public void test_subscription_order_across_index() {
+        dispatcher.subscribe(Topics.not(only("prog/events/b/b1")), String.class, recorder("not b1"));
+        dispatcher.subscribe(match("prog/*/a"), String.class, recorder("*"));
+        dispatcher.subscribe(only("prog/events/a"), String.class, recorder("only"));
+        publish();
+        dispatcher.subscribe(Topics.anyOf(match("prog/**"), only("prog/events/a")), String.class, recorder("anyOf"));
+        Subscriber<String> late = recorder("late");
+        dispatcher.subscribe(match("prog/events/b/?1"), String.class, late);
+        dispatcher.publish(topic("prog/events/a"), "a");
+        dispatcher.publish(topic("prog/events/b/b1"), "b1");
+        dispatcher.unsubscribe(late);
+        dispatcher.publish(topic("prog/events/b/b1"), "b1");
+        assertEquals("[not b1:Hello for a, *:Hello for a, only:Hello for a, not b1:hello for a1, not b1:a, *:a, only:a, anyOf:a, anyOf:b1, late:b1, anyOf:b1]", sequence.toString());
+    }
+
+    @Test
+    public void test_event_type_cache() {
+        dispatcher.subscribe(only("prog/events/a"), String.class, recorder("string"));
+        dispatcher.publish(topic("prog/events/a"), "a");
+        dispatcher.publish(topic("prog/events/a"), 1);
+        Subscriber<Object> objects = new Subscriber<Object>() {
+            public void onEvent(Event<Object> event) throws Exception {
+                sequence.add("object:" + event.getSource());
+            }
+        };
+        dispatcher.subscribe(only("prog/events/a"), Object.class, objects);
+        dispatcher.publish(topic("prog/events/a"), "b");
+        dispatcher.publish(topic("prog/events/a"), 2);
+        dispatcher.unsubscribe(objects);
+        dispatcher.publish(topic("prog/events/a"), "c");
+        dispatcher.publish(topic("prog/events/a"), 3);
+        assertEquals("[string:a, string:b, object:b, object:2, string:c]", sequence.toString());
+    }
+
+    @Test
+    public void test_event_type_hierarchy() {
+        dispatcher.subscribe(only("prog/events/a"), Comparable.class, recorder("comparable"));
+        dispatcher.subscribe(only("prog/events/a"), Number.class, recorder("number"));
+        dispatcher.subscribe(only("prog/events/a"), Object.class, recorder("object"));
+        dispatcher.subscribe(only("prog/events/a"), CharSequence.class, recorder("chars"));
+        dispatcher.subscribe(only("prog/events/a"), Object[].class, recorder("array"));
+        dispatcher.publish(topic("prog/events/a"), "a");
+        dispatcher.publish(topic("prog/events/a"), 1);
+        dispatcher.publish(topic("prog/events/a"), new String[0]);
+        assertEquals(8, sequence.size());
+        assertEquals("[comparable:a, object:a, chars:a, comparable:1, number:1, object:1]", sequence.subList(0, 6).toString());
+        assertTrue(String.valueOf(sequence.get(6)).startsWith("object:") && String.valueOf(sequence.get(7)).startsWith("array:"));
+    }
+
+    @Test
+    public void test_topic_cache_eviction() {
+        DefaultDispatcher dispatcher = (DefaultDispatcher) Dispatchers.custom(ErrorHandlers.rethrow(), DirectExecutor.immediate(), DirectExecutor.immediate(), 16);
+        dispatcher.subscribe(match("prog/**"), String.class, recorder("all"));
+        for (int i = 0; i < 100; i++) {
+            dispatcher.publish(topic("prog/events/a"), "a");
+            dispatcher.publish(topic("temp/" + i), "temp");
+        }
+        CacheStats stats = dispatcher.getTopicCacheStats();
+        assertEquals(101, stats.missCount());
+        assertEquals(99, stats.hitCount());
+        assertEquals(85, stats.evictionCount());
+
+        dispatcher.subscribe(only("temp/0"), String.class, recorder("temp"));
+        dispatcher.publish(topic("temp/0"), "evicted");
+        assertEquals(101, sequence.size());
+        assertEquals("temp:evicted", sequence.get(100));
+    }
+
+    private <E> Subscriber<E> recorder(final String name) {
+        return new Subscriber<E>() {
+            public void onEvent(Event<E> event) throws Exception {
+                sequence.add(name + ":" + event.getSource());
+            }
+        };
+    }
+
     @Test
     public void test_SYNCHRONOUS_SAFE_DISPCHER() throws InterruptedException {
         final Dispatcher dispatcher = Dispatchers.synchronousSafe(ErrorHandlers.rethrow());
@@ -231,6 +709,53 @@ public final class DefaultDispatcherTest {
         dispatcher.close();
     }
 
+    @Test
+    public void test_RING_BUFFER_DISPATCHER() throws InterruptedException {
+        final Dispatcher dispatcher = Dispatchers.ringBuffer(16, ErrorHandlers.rethrow());
+
+        final CountDownLatch go = new CountDownLatch(1);
+        final CountDownLatch publish = new CountDownLatch(20);
+        final CountDownLatch consume = new CountDownLatch(20 * 20);
+
+        for (int i = 0; i < 20; i++) {
+            new Thread("T" + i) {
+
+                public void run() {
+                    try {
+                        go.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    dispatcher.publish(Topic.topic("a/b"), Thread.currentThread().getName());
+                    publish.countDown();
+                }
+            }.start();
+        }
+
+        final AtomicBoolean inProcess = new AtomicBoolean(false);
+        final AtomicInteger paralellCalls = new AtomicInteger(0);
+
+        for (int i = 0; i < 20; i++) {
+            dispatcher.subscribe(Topic.only("a/b"), String.class, new Subscriber<String>() {
+
+                public void onEvent(Event<String> event) throws Exception {
+                    if (inProcess.get())
+                        paralellCalls.incrementAndGet();
+                    inProcess.set(true);
+                    Thread.sleep(10);
+                    inProcess.set(false);
+                    consume.countDown();
+                }
+            });
+        }
+
+        go.countDown();
+        assertTrue(publish.await(10, TimeUnit.SECONDS));
+        assertTrue(consume.await(30, TimeUnit.SECONDS));
+        assertEquals(0, paralellCalls.get());
+        dispatcher.close();
+    }
+
     @Test
     public void test_ASYNCHRONOUS_UNSAFE_DISPATCHER() throws InterruptedException {
         final Dispatcher dispatcher = Dispatchers.asynchronousUnsafe(30, ErrorHandlers.rethrow());
@@ -339,6 +864,529 @@ public final class DefaultDispatcherTest {
         dispatcher.close();
     }
 
+    @Test
+    public void test_async_subscriber() throws InterruptedException {
+        final List<Object> errors = new CopyOnWriteArrayList<Object>();
+        final ExtendedDispatcher dispatcher = (ExtendedDispatcher) Dispatchers.broadcastOrdered(2, new ErrorHandler() {
+            @Override
+            public <E> void onError(Subscription<E> subscription, Event<E> event, Exception e) {
+                errors.add(event.getSource() + ":" + e.getMessage());
+            }
+        });
+        final List<Object> received = new CopyOnWriteArrayList<Object>();
+        final BlockingQueue<SettableFuture<Object>> futures = new LinkedBlockingQueue<SettableFuture<Object>>();
+        dispatcher.subscribeAsync(only("async"), String.class, new AsyncSubscriber<String>() {
+            public ListenableFuture<?> onEvent(Event<String> event) throws Exception {
+                received.add(event.getSource());
+                SettableFuture<Object> future = SettableFuture.create();
+                futures.add(future);
+                return future;
+            }
+        });
+
+        dispatcher.publish(topic("async"), "a");
+        dispatcher.publish(topic("async"), "b");
+        SettableFuture<Object> first = futures.poll(5, TimeUnit.SECONDS);
+        // the next event waits for the future, not for the subscriber to return
+        assertNull(futures.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals("[a]", received.toString());
+
+        first.setException(new IllegalStateException("failed"));
+        SettableFuture<Object> second = futures.poll(5, TimeUnit.SECONDS);
+        assertEquals("[a, b]", received.toString());
+        assertEquals("[a:failed]", errors.toString());
+        second.set(null);
+        dispatcher.close();
+    }
+
+    @Test
+    public void test_subscribe_async_pending_future() throws Exception {
+        final List<Object> errors = new CopyOnWriteArrayList<Object>();
+        final CountDownLatch failed = new CountDownLatch(1);
+        final ExtendedDispatcher dispatcher = (ExtendedDispatcher) Dispatchers.broadcastUnordered(1, new ErrorHandler() {
+            @Override
+            public <E> void onError(Subscription<E> subscription, Event<E> event, Exception e) {
+                errors.add(event.getSource() + ":" + e.getMessage());
+                failed.countDown();
+            }
+        });
+        final BlockingQueue<ListenableFutureTask<Object>> futures = new LinkedBlockingQueue<ListenableFutureTask<Object>>();
+        dispatcher.subscribeAsync(only("async"), String.class, new AsyncSubscriber<String>() {
+            public ListenableFuture<?> onEvent(Event<String> event) throws Exception {
+                ListenableFutureTask<Object> future = ListenableFutureTask.create(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        throw new IllegalStateException("failed");
+                    }
+                });
+                futures.add(future);
+                return future;
+            }
+        });
+
+        dispatcher.publish(topic("async"), "a");
+        dispatcher.publish(topic("async"), "b");
+        // the only thread of the dispatcher does not wait for the future
+        ListenableFutureTask<Object> first = futures.poll(5, TimeUnit.SECONDS);
+        ListenableFutureTask<Object> second = futures.poll(5, TimeUnit.SECONDS);
+        assertTrue(second != null);
+        assertEquals("[]", errors.toString());
+
+        first.run();
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        assertEquals("[a:failed]", errors.toString());
+        second.cancel(false);
+        dispatcher.close();
+    }
+
+    @Test
+    public void test_publish_tracked() throws Exception {
+        ExtendedDispatcher dispatcher = (ExtendedDispatcher) Dispatchers.broadcastUnordered(2, ErrorHandlers.ignoreErrors());
+        final BlockingQueue<SettableFuture<Object>> futures = new LinkedBlockingQueue<SettableFuture<Object>>();
+        dispatcher.subscribe(only("tracked"), String.class, recorder("ok"));
+        dispatcher.subscribe(only("tracked"), String.class, new Subscriber<String>() {
+            public void onEvent(Event<String> event) throws Exception {
+                throw new IllegalStateException("failed");
+            }
+        });
+        dispatcher.subscribeAsync(only("tracked"), String.class, new AsyncSubscriber<String>() {
+            public ListenableFuture<?> onEvent(Event<String> event) throws Exception {
+                SettableFuture<Object> future = SettableFuture.create();
+                futures.add(future);
+                return future;
+            }
+        });
+
+        Delivery delivery = dispatcher.publishTracked(topic("tracked"), "event");
+        SettableFuture<Object> future = futures.poll(5, TimeUnit.SECONDS);
+        assertFalse(delivery.isDone());
+        future.set(null);
+        assertSame(delivery, delivery.get(5, TimeUnit.SECONDS));
+        assertEquals(3, delivery.getSubscriberCount());
+        assertEquals(1, delivery.getFailures().size());
+        assertEquals("failed", delivery.getFailures().values().iterator().next().getMessage());
+        assertEquals("[ok:event]", sequence.toString());
+        dispatcher.close();
+
+        // nobody listening
+        dispatcher = (ExtendedDispatcher) Dispatchers.synchronousUnsafe(ErrorHandlers.ignoreErrors());
+        delivery = dispatcher.publishTracked(topic("tracked"), "event");
+        assertTrue(delivery.isDone());
+        assertEquals(0, delivery.getSubscriberCount());
+
+        // a dropped publication fails its delivery
+        final CountDownLatch blocked = new CountDownLatch(1);
+        dispatcher = (ExtendedDispatcher) Dispatchers.asynchronousSafe(1, OverflowPolicy.dropNewest());
+        dispatcher.subscribe(only("tracked"), String.class, new Subscriber<String>() {
+            public void onEvent(Event<String> event) throws Exception {
+                blocked.await();
+            }
+        });
+        Delivery first = dispatcher.publishTracked(topic("tracked"), "event0");
+        Delivery second = dispatcher.publishTracked(topic("tracked"), "event1");
+        Delivery dropped = dispatcher.publishTracked(topic("tracked"), "event2");
+        try {
+            dropped.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals(RejectedExecutionException.class, e.getCause().getClass());
+        }
+        blocked.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+        dispatcher.close();
+    }
+
+    @Test
+    public void test_publish_tracked_batch() throws Exception {
+        ExtendedDispatcher dispatcher = (ExtendedDispatcher) Dispatchers.synchronousUnsafe(ErrorHandlers.ignoreErrors());
+        dispatcher.subscribe(only("tracked"), String.class, new BatchSubscriber<String>() {
+            public void onEvents(List<Event<String>> events) throws Exception {
+                throw new IllegalStateException("batch of " + events.size());
+            }
+        }, 2, 0, TimeUnit.SECONDS);
+
+        // the delivery waits for the batch holding the event
+        Delivery first = dispatcher.publishTracked(topic("tracked"), "event0");
+        assertFalse(first.isDone());
+        Delivery second = dispatcher.publishTracked(topic("tracked"), "event1");
+        assertTrue(first.isDone());
+        assertTrue(second.isDone());
+        assertEquals("batch of 2", first.getFailures().values().iterator().next().getMessage());
+        assertEquals("batch of 2", second.getFailures().values().iterator().next().getMessage());
+        dispatcher.close();
+
+        // a late batch completes its deliveries once flushed
+        dispatcher = (ExtendedDispatcher) Dispatchers.synchronousUnsafe(ErrorHandlers.ignoreErrors());
+        dispatcher.subscribe(only("tracked"), String.class, new BatchSubscriber<String>() {
+            public void onEvents(List<Event<String>> events) throws Exception {
+            }
+        }, 10, 50, TimeUnit.MILLISECONDS);
+        Delivery late = dispatcher.publishTracked(topic("tracked"), "event");
+        assertSame(late, late.get(5, TimeUnit.SECONDS));
+        assertTrue(late.getFailures().isEmpty());
+        dispatcher.close();
+    }
+
+    @Test
+    public void test_TOPIC_ORDERED_DISPATCHER() throws InterruptedException {
+        final Dispatcher dispatcher = Dispatchers.topicOrdered(4, ErrorHandlers.rethrow());
+
+        final CountDownLatch go = new CountDownLatch(1);
+        final CountDownLatch consume = new CountDownLatch(8 * 1000);
+        final int[] last = new int[8];
+        final AtomicInteger outOfOrder = new AtomicInteger(0);
+
+        dispatcher.subscribe(Topic.match("lanes/*"), Integer.class, new Subscriber<Integer>() {
+            public void onEvent(Event<Integer> event) throws Exception {
+                int topic = Integer.parseInt(event.getTopic().getName().substring(6));
+                if (event.getSource() != last[topic] + 1)
+                    outOfOrder.incrementAndGet();
+                last[topic] = event.getSource();
+                consume.countDown();
+            }
+        });
+
+        for (int i = 0; i < 8; i++) {
+            final Topic topic = Topic.topic("lanes/" + i);
+            new Thread("T" + i) {
+                @Override
+                public void run() {
+                    try {
+                        go.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    for (int j = 1; j <= 1000; j++)
+                        dispatcher.publish(topic, j);
+                }
+            }.start();
+        }
+
+        go.countDown();
+        consume.await();
+
+        assertEquals(outOfOrder.get(), 0);
+        dispatcher.close();
+    }
+
+    @Test
+    public void test_TOPIC_ORDERED_cross_lane_publishing() throws InterruptedException {
+        TopicPartitionedExecutor executor = new TopicPartitionedExecutor(2, 2, Executors.defaultThreadFactory());
+        final ExtendedDispatcher dispatcher = new DefaultDispatcher(ErrorHandlers.rethrow(), executor, DirectExecutor.immediate());
+        try {
+            // find two topics fired by different lanes
+            final Map<Topic, Thread> lanes = new ConcurrentHashMap<Topic, Thread>();
+            final CountDownLatch located = new CountDownLatch(8);
+            SubscriptionHandle locating = dispatcher.subscribeWithHandle(match("cross/*"), Integer.class, new Subscriber<Integer>() {
+                public void onEvent(Event<Integer> event) throws Exception {
+                    lanes.put(event.getTopic(), Thread.currentThread());
+                    located.countDown();
+                }
+            });
+            for (int i = 0; i < 8; i++)
+                dispatcher.publish(topic("cross/" + i), 0);
+            located.await();
+            locating.cancel();
+            final Topic a = topic("cross/0");
+            Topic other = null;
+            for (int i = 1; i < 8 && other == null; i++)
+                if (lanes.get(topic("cross/" + i)) != lanes.get(a))
+                    other = topic("cross/" + i);
+            assertTrue(other != null);
+            final Topic b = other;
+
+            // each event fires 4 events on the other lane, whose ring is most likely full
+            final CountDownLatch delivered = new CountDownLatch(8 * (1 + 4 + 16 + 64));
+            Subscriber<Integer> relay = new Subscriber<Integer>() {
+                public void onEvent(Event<Integer> event) throws Exception {
+                    Topic target = event.getTopic().equals(a) ? b : a;
+                    for (int i = 0; i < 4 && event.getSource() > 0; i++)
+                        dispatcher.publish(target, event.getSource() - 1);
+                    delivered.countDown();
+                }
+            };
+            dispatcher.subscribe(only(a.getName()), Integer.class, relay);
+            dispatcher.subscribe(only(b.getName()), Integer.class, relay);
+            for (int i = 0; i < 4; i++) {
+                dispatcher.publish(a, 3);
+                dispatcher.publish(b, 3);
+            }
+            assertTrue(delivered.await(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void test_MAILBOX_DISPATCHER() throws InterruptedException {
+        final Dispatcher dispatcher = Dispatchers.mailbox(4, 8, ErrorHandlers.rethrow());
+
+        final CountDownLatch consume = new CountDownLatch(2 * 100);
+        final CountDownLatch slowStarted = new CountDownLatch(1);
+        final CountDownLatch fastReceived = new CountDownLatch(9);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> fast = new ArrayList<Integer>();
+        final List<Integer> slow = new ArrayList<Integer>();
+        final AtomicBoolean inProcess = new AtomicBoolean(false);
+        final AtomicInteger paralellCalls = new AtomicInteger(0);
+
+        dispatcher.subscribe(Topic.only("a/b"), Integer.class, new Subscriber<Integer>() {
+            public void onEvent(Event<Integer> event) throws Exception {
+                if (inProcess.getAndSet(true))
+                    paralellCalls.incrementAndGet();
+                fast.add(event.getSource());
+                inProcess.set(false);
+                fastReceived.countDown();
+                consume.countDown();
+            }
+        });
+        dispatcher.subscribe(Topic.only("a/b"), Integer.class, new Subscriber<Integer>() {
+            public void onEvent(Event<Integer> event) throws Exception {
+                slowStarted.countDown();
+                release.await();
+                slow.add(event.getSource());
+                consume.countDown();
+            }
+        });
+
+        // the slow subscriber is blocked on the first event, then its mailbox of 8 is full
+        for (int i = 0; i < 9; i++)
+            dispatcher.publish(Topic.topic("a/b"), i);
+        slowStarted.await();
+        fastReceived.await();
+
+        release.countDown();
+        for (int i = 9; i < 100; i++)
+            dispatcher.publish(Topic.topic("a/b"), i);
+        consume.await();
+
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < 100; i++)
+            expected.add(i);
+        assertEquals(fast, expected);
+        assertEquals(slow, expected);
+        assertEquals(paralellCalls.get(), 0);
+        dispatcher.close();
+    }
+
+    @Test
+    public void test_MAILBOX_full_from_subscriber() throws InterruptedException {
+        final CountDownLatch rejected = new CountDownLatch(1);
+        final List<Object> errors = new CopyOnWriteArrayList<Object>();
+        final Dispatcher dispatcher = Dispatchers.mailbox(4, 1, new ErrorHandler() {
+            @Override
+            public <E> void onError(Subscription<E> subscription, Event<E> event, Exception e) {
+                errors.add(event.getSource() + ":" + e.getClass().getSimpleName());
+                rejected.countDown();
+            }
+        });
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch consume = new CountDownLatch(2);
+        final List<Object> received = new CopyOnWriteArrayList<Object>();
+
+        dispatcher.subscribe(Topic.only("b"), Integer.class, new Subscriber<Integer>() {
+            public void onEvent(Event<Integer> event) throws Exception {
+                started.countDown();
+                release.await();
+                received.add(event.getSource());
+                consume.countDown();
+            }
+        });
+        dispatcher.subscribe(Topic.only("a"), Integer.class, new Subscriber<Integer>() {
+            public void onEvent(Event<Integer> event) throws Exception {
+                // the mailbox of b is full: waiting for it from a mailbox thread could deadlock
+                dispatcher.publish(Topic.topic("b"), event.getSource());
+            }
+        });
+
+        dispatcher.publish(Topic.topic("b"), 0);
+        started.await();
+        dispatcher.publish(Topic.topic("b"), 1);
+        dispatcher.publish(Topic.topic("a"), 2);
+        assertTrue(rejected.await(5, TimeUnit.SECONDS));
+        release.countDown();
+        assertTrue(consume.await(5, TimeUnit.SECONDS));
+
+        assertEquals("[2:RejectedExecutionException]", errors.toString());
+        assertEquals("[0, 1]", received.toString());
+        dispatcher.close();
+    }
+
+    @Test
+    public void test_MAILBOX_async_subscriber() throws InterruptedException {
+        final ExtendedDispatcher dispatcher = (ExtendedDispatcher) Dispatchers.mailbox(2, 8, ErrorHandlers.rethrow());
+        final List<Object> received = new CopyOnWriteArrayList<Object>();
+        final BlockingQueue<SettableFuture<Object>> futures = new LinkedBlockingQueue<SettableFuture<Object>>();
+        dispatcher.subscribeAsync(Topic.only("a/b"), Integer.class, new AsyncSubscriber<Integer>() {
+            public ListenableFuture<?> onEvent(Event<Integer> event) throws Exception {
+                received.add(event.getSource());
+                SettableFuture<Object> future = SettableFuture.create();
+                futures.add(future);
+                return future;
+            }
+        });
+
+        for (int i = 0; i < 3; i++)
+            dispatcher.publish(Topic.topic("a/b"), i);
+        SettableFuture<Object> first = futures.poll(5, TimeUnit.SECONDS);
+        // the next event waits for the future, not for the subscriber to return
+        assertNull(futures.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals("[0]", received.toString());
+
+        first.set(null);
+        futures.poll(5, TimeUnit.SECONDS).set(null);
+        futures.poll(5, TimeUnit.SECONDS).set(null);
+        assertEquals("[0, 1, 2]", received.toString());
+        dispatcher.close();
+    }
+
+    @Test
+    public void test_CONFLATING_DISPATCHER() throws InterruptedException {
+        final Dispatcher dispatcher = Dispatchers.conflating(2, ErrorHandlers.rethrow());
+
+        final CountDownLatch slowStarted = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch consume = new CountDownLatch(3);
+        final List<Object> slow = new CopyOnWriteArrayList<Object>();
+
+        dispatcher.subscribe(Topic.match("a/*"), Integer.class, new Subscriber<Integer>() {
+            public void onEvent(Event<Integer> event) throws Exception {
+                slowStarted.countDown();
+                release.await();
+                slow.add(event.getTopic() + "=" + event.getSource());
+                consume.countDown();
+            }
+        });
+
+        dispatcher.publish(Topic.topic("a/b"), 0);
+        slowStarted.await();
+        // only the latest value of each topic is kept while the subscriber is busy
+        for (int i = 1; i < 10; i++)
+            dispatcher.publish(Topic.topic("a/b"), i);
+        dispatcher.publish(Topic.topic("a/c"), 100);
+        release.countDown();
+        consume.await();
+
+        assertEquals("[a/b=0, a/b=9, a/c=100]", slow.toString());
+        dispatcher.close();
+    }
+
+    @Test
+    public void test_CONFLATING_async_subscriber() throws InterruptedException {
+        final ExtendedDispatcher dispatcher = (ExtendedDispatcher) Dispatchers.conflating(2, ErrorHandlers.rethrow());
+        final List<Object> received = new CopyOnWriteArrayList<Object>();
+        final BlockingQueue<SettableFuture<Object>> futures = new LinkedBlockingQueue<SettableFuture<Object>>();
+        dispatcher.subscribeAsync(Topic.match("a/*"), Integer.class, new AsyncSubscriber<Integer>() {
+            public ListenableFuture<?> onEvent(Event<Integer> event) throws Exception {
+                received.add(event.getTopic() + "=" + event.getSource());
+                SettableFuture<Object> future = SettableFuture.create();
+                futures.add(future);
+                return future;
+            }
+        });
+
+        dispatcher.publish(Topic.topic("a/b"), 0);
+        SettableFuture<Object> first = futures.poll(5, TimeUnit.SECONDS);
+        dispatcher.publish(Topic.topic("a/b"), 1);
+        dispatcher.publish(Topic.topic("a/c"), 2);
+        // the next event waits for the future, and is conflated meanwhile
+        assertNull(futures.poll(100, TimeUnit.MILLISECONDS));
+        dispatcher.publish(Topic.topic("a/b"), 3);
+
+        first.set(null);
+        futures.poll(5, TimeUnit.SECONDS).set(null);
+        futures.poll(5, TimeUnit.SECONDS).set(null);
+        assertNull(futures.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals("[a/b=0, a/b=3, a/c=2]", received.toString());
+        dispatcher.close();
+    }
+
+    @Test
+    public void test_VIRTUAL_THREADS_DISPATCHER() throws InterruptedException {
+        if (!Dispatchers.supportsVirtualThreads()) {
+            try {
+                Dispatchers.virtualThreads(ErrorHandlers.rethrow());
+                fail();
+            } catch (UnsupportedOperationException e) {
+                assertEquals("Virtual threads require Java 21: use a dispatcher backed by a thread pool instead", e.getMessage());
+            }
+            return;
+        }
+        final Dispatcher dispatcher = Dispatchers.virtualThreads(ErrorHandlers.rethrow());
+
+        // all subscribers block until every one of them is running: a bounded pool would dead-lock
+        final int subscribers = Runtime.getRuntime().availableProcessors() * 8;
+        final CountDownLatch running = new CountDownLatch(subscribers);
+        final CountDownLatch consume = new CountDownLatch(subscribers);
+        for (int i = 0; i < subscribers; i++) {
+            dispatcher.subscribe(Topic.only("io"), String.class, new Subscriber<String>() {
+                public void onEvent(Event<String> event) throws Exception {
+                    running.countDown();
+                    running.await();
+                    consume.countDown();
+                }
+            });
+        }
+
+        dispatcher.publish(Topic.topic("io"), "read");
+        assertTrue(consume.await(10, TimeUnit.SECONDS));
+        dispatcher.close();
+    }
+
+    @Test
+    public void test_FORK_JOIN_DISPATCHER() throws InterruptedException {
+        final Dispatcher dispatcher = Dispatchers.forkJoin(4, 8, ErrorHandlers.rethrow());
+
+        final int subscribers = 1000;
+        final CountDownLatch consume = new CountDownLatch(subscribers + 1);
+        final AtomicInteger calls = new AtomicInteger();
+        for (int i = 0; i < subscribers; i++) {
+            dispatcher.subscribe(Topic.only("wide"), String.class, new Subscriber<String>() {
+                public void onEvent(Event<String> event) throws Exception {
+                    calls.incrementAndGet();
+                    consume.countDown();
+                }
+            });
+        }
+        dispatcher.subscribe(Topic.only("narrow"), String.class, new Subscriber<String>() {
+            public void onEvent(Event<String> event) throws Exception {
+                consume.countDown();
+            }
+        });
+
+        dispatcher.publish(Topic.topic("wide"), "split");
+        dispatcher.publish(Topic.topic("narrow"), "direct");
+        assertTrue(consume.await(10, TimeUnit.SECONDS));
+        assertEquals(subscribers, calls.get());
+        dispatcher.close();
+    }
+
+    @Test
+    public void test_FORK_JOIN_DISPATCHER_failing_subscriber() throws Exception {
+        final ExtendedDispatcher dispatcher = (ExtendedDispatcher) Dispatchers.forkJoin(4, 8, ErrorHandlers.rethrow());
+
+        final int subscribers = 100;
+        final AtomicInteger calls = new AtomicInteger();
+        for (int i = 0; i < subscribers; i++) {
+            final boolean failing = i == subscribers / 2;
+            dispatcher.subscribe(Topic.only("wide"), String.class, new Subscriber<String>() {
+                public void onEvent(Event<String> event) throws Exception {
+                    if (failing)
+                        throw new IllegalStateException("failed");
+                    calls.incrementAndGet();
+                }
+            });
+        }
+
+        Delivery delivery = dispatcher.publishTracked(Topic.topic("wide"), "split");
+        assertSame(delivery, delivery.get(5, TimeUnit.SECONDS));
+        assertEquals(subscribers, delivery.getSubscriberCount());
+        assertEquals(1, delivery.getFailures().size());
+        assertEquals(subscribers - 1, calls.get());
+        dispatcher.close();
+    }
+
     @Test
     public void test_BROADCAST_UNORDERED_DISPATCHER() throws InterruptedException {
         final Dispatcher dispatcher = Dispatchers.broadcastUnordered(30, ErrorHandlers.rethrow());
@@ -19,6 +19,12 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+
 import static com.mycila.event.Topic.any;
 import static com.mycila.event.Topic.match;
 import static com.mycila.event.Topic.not;
@@ -26,6 +32,7 @@ import static com.mycila.event.Topic.only;
 import static com.mycila.event.Topic.topic;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -52,6 +59,66 @@ public final class MatcherTest {
         assertFalse(not(match("prog/events/**")).matches(topic("prog/events/a")));
     }
 
+    @Test
+    public void test_match_patterns() {
+        assertTrue(match("prog/*/a?c").matches(topic("prog/events/abc")));
+        assertFalse(match("prog/*/a?c").matches(topic("prog/events/abbc")));
+        assertTrue(match("prog/**/b*/**/c").matches(topic("prog/x/y/bar/z/c")));
+        assertFalse(match("prog/**/b*/**/c").matches(topic("prog/x/y/z/c")));
+        assertTrue(match("prog/*").matches(topic("prog/")));
+        assertFalse(match("/prog/**").matches(topic("prog/a")));
+        assertFalse(match("prog/a/").matches(topic("prog/a")));
+        assertTrue(match(" prog // a ").matches(topic("prog/a")));
+    }
+
+    @Test
+    public void test_compile() {
+        Topics[] expressions = {
+                Topics.anyOf("prog/events/a", "prog/*/b?", "prog/**/c/**", "/prog/*"),
+                only("prog/events/a").or(match("prog/x/**")),
+                match("prog/**").and(not(match("prog/events/**").or(only("prog/x/y")))),
+                not(any()),
+                Topics.anyOf(new Topics[0])};
+        Topic[] topics = Topic.topics("prog/events/a", "prog/events/b1", "prog/events/b12", "prog/c", "prog/x/c/y",
+                "/prog/a", "/prog/", "prog/x/y", "prog/", "", "other");
+        for (Topics expression : expressions) {
+            Topics compiled = expression.compile();
+            assertEquals(expression.compile(), compiled);
+            assertEquals(expression.toString(), compiled.toString());
+            for (Topic topic : topics)
+                assertEquals(expression + " " + topic, expression.matches(topic), compiled.matches(topic));
+        }
+    }
+
+    @Test
+    public void test_serialized_pattern() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(match("prog/**/a"));
+        out.writeObject(topic("prog/events/a"));
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        Topics matcher = (Topics) in.readObject();
+        Topic topic = (Topic) in.readObject();
+        assertEquals(match("prog/**/a"), matcher);
+        assertTrue(matcher.matches(topic));
+    }
+
+    @Test
+    public void test_interned_topic() throws Exception {
+        Topic topic = topic("prog/events/a");
+        assertSame(topic, topic("prog/events/a"));
+        assertSame(topic, Topic.topics("prog/events/a")[0]);
+        assertTrue(topic.getId() != topic("prog/events/b").getId());
+        assertSame(topic, Topic.topic(topic.getId()));
+        assertEquals(Arrays.asList("prog", "events", "a"), topic.getSegments());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(topic);
+        out.close();
+        assertSame(topic, new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject());
+    }
+
     @Test
     public void test_equals() {
         assertEquals(
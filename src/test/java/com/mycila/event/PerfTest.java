@@ -43,14 +43,22 @@ final class PerfTest {
     }
 
     public static void main(String... args) throws Exception {
-        Map<String, Dispatcher> dispatchers = new LinkedHashMap<String, Dispatcher>(6) {
+        Map<String, Dispatcher> dispatchers = new LinkedHashMap<String, Dispatcher>(12) {
             {
                 put("SynchronousSafe", Dispatchers.synchronousSafe(ErrorHandlers.rethrow()));
                 put("SynchronousUnsafe", Dispatchers.synchronousUnsafe(ErrorHandlers.rethrow()));
                 put("AsynchronousSafe", Dispatchers.asynchronousSafe(ErrorHandlers.rethrow()));
+                put("RingBuffer", Dispatchers.ringBuffer(ErrorHandlers.rethrow()));
                 put("AsynchronousUnsafe", Dispatchers.asynchronousUnsafe(ErrorHandlers.rethrow()));
                 put("BroadcastOrdered", Dispatchers.broadcastOrdered(ErrorHandlers.rethrow()));
+                put("TopicOrdered", Dispatchers.topicOrdered(ErrorHandlers.rethrow()));
+                put("Mailbox", Dispatchers.mailbox(ErrorHandlers.rethrow()));
+                put("ForkJoin", Dispatchers.forkJoin(ErrorHandlers.rethrow()));
                 put("BroadcastUnordered", Dispatchers.broadcastUnordered(ErrorHandlers.rethrow()));
+                if (Dispatchers.supportsVirtualThreads()) {
+                    put("AsynchronousUnsafeVirtual", Dispatchers.asynchronousUnsafeVirtual(ErrorHandlers.rethrow()));
+                    put("BroadcastUnorderedVirtual", Dispatchers.broadcastUnorderedVirtual(ErrorHandlers.rethrow()));
+                }
             }
         };
         for (Map.Entry<String, Dispatcher> entry : dispatchers.entrySet()) {